@@ -0,0 +1,245 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/** Batch analysis of positions (game archives, test suites) with the engine of Player: best move, score, principal
+ *  variation and depth of every position.
+ *  It is thread-safe: it never touches the static fields of Player (MaxPlayer, MinPlayer, ...), and every thread
+ *  analyses on its own worker - bitboard, principal variation search, threat search and transposition table - which
+ *  is reset and reused from one position to the next, so analysing allocates next to nothing per position.
+ *  analyze(String) analyses one position on the calling thread; analyze(BufferedReader, Consumer) streams a whole
+ *  input through the worker pool and hands the results over in input order, with at most 2 positions per thread in
+ *  flight, so memory stays flat whatever the size of the input.
+ *  Positions are one per line, in one of two text formats (blank lines and lines starting with # are skipped):
+ *    size*size cells, row by row: W (white), B (black), . (empty) - the side to move has fewer pieces (white on ties)
+ *    size:moves - the moves from the empty board, white first, as row*size + col separated by commas (e.g. 8:27,28,35)
+ *  Results are JSON lines: {"position", "row", "col", "score", "depth", "nodes", "ms", "threat_win", "pv"} with the
+ *  principal variation as row*size + col, or {"position", "error"} for a line that is not a valid position.
+ *    javac *.java && java Analyzer [-threads n] [-time s] [-depth d] [-tt mb] [input file] < positions > results
+ **/
+
+class Analyzer {
+
+	public static final class Result {
+		public final long position; // line of the position in the input (from 0, blank and comment lines excluded)
+		public final int row, col; // best move (-1, -1 if the game is over)
+		public final int score; // for the side to move
+		public final int depth; // deepest iteration completed
+		public final int[] pv; // principal variation, row*size + col
+		public final long nodes, ms;
+		public final boolean threat_win; // forced win found by the threat search, no search
+		public final String error; // not null if the line is not a valid position
+
+		Result(long position, int[] move, int depth, int[] pv, long nodes, long ms, boolean threat_win) {
+			this.position = position;
+			this.row = move[0];
+			this.col = move[1];
+			this.score = move[2];
+			this.depth = depth;
+			this.pv = pv;
+			this.nodes = nodes;
+			this.ms = ms;
+			this.threat_win = threat_win;
+			this.error = null;
+		}
+
+		Result(long position, String error) {
+			this.position = position;
+			this.row = -1;
+			this.col = -1;
+			this.score = 0;
+			this.depth = 0;
+			this.pv = new int[0];
+			this.nodes = 0;
+			this.ms = 0;
+			this.threat_win = false;
+			this.error = error;
+		}
+
+		public String toJson() {
+			StringBuilder json = new StringBuilder();
+			json.append("{\"position\":").append(position);
+			if (error != null) {return json.append(",\"error\":\"").append(error.replace("\"", "'")).append("\"}").toString();}
+			json.append(",\"row\":").append(row).append(",\"col\":").append(col).append(",\"score\":").append(score)
+				.append(",\"depth\":").append(depth).append(",\"nodes\":").append(nodes).append(",\"ms\":").append(ms)
+				.append(",\"threat_win\":").append(threat_win).append(",\"pv\":[");
+			for (int i = 0; i < pv.length; i++) {json.append(i > 0 ? "," : "").append(pv[i]);}
+			return json.append("]}").toString();
+		}
+	}
+
+	final class Worker {
+		/** Search state of one thread, one set per board size met, kept from one position to the next.
+		 **/
+		final Player.TransTable tt = new Player.TransTable(tt_size_mb);
+		final Player.BitBoard[] boards = new Player.BitBoard[Player.BitBoard.MAX_SIZE + 1];
+		final Player.Search[] searches = new Player.Search[Player.BitBoard.MAX_SIZE + 1];
+		final Player.ThreatSearch[] threats = new Player.ThreatSearch[Player.BitBoard.MAX_SIZE + 1];
+
+		Result analyze(long position, String line) {
+			long tStart = System.nanoTime();
+			Player.TimeManager clock = new Player.TimeManager(tStart, seconds);
+
+			// position
+			int size;
+			int[] cells; // 0 - white, 1 - black, -1 - empty
+			try {
+				int colon = line.indexOf(':');
+				if (colon >= 0) {
+					size = Integer.parseInt(line.substring(0, colon).trim());
+					cells = new int[size*size];
+					java.util.Arrays.fill(cells, -1);
+					String moves = line.substring(colon + 1).trim();
+					int side = 0;
+					for (String move : moves.isEmpty() ? new String[0] : moves.split(",")) {
+						int sq = Integer.parseInt(move.trim());
+						if (sq < 0 || sq >= cells.length || cells[sq] >= 0) {return new Result(position, "illegal move " + sq);}
+						cells[sq] = side;
+						side = 1 - side;
+					}
+				} else {
+					size = (int)Math.round(Math.sqrt(line.length()));
+					if (size*size != line.length()) {return new Result(position, "not a square board: " + line.length() + " cells");}
+					cells = new int[size*size];
+					for (int sq = 0; sq < cells.length; sq++) {
+						char c = line.charAt(sq);
+						if (c == 'W') {cells[sq] = 0;}
+						else if (c == 'B') {cells[sq] = 1;}
+						else if (c == '.') {cells[sq] = -1;}
+						else {return new Result(position, "unknown cell '" + c + "'");}
+					}
+				}
+				if (size < 1 || size > Player.BitBoard.MAX_SIZE) {return new Result(position, "board size " + size + " not in 1.." + Player.BitBoard.MAX_SIZE);}
+			} catch (NumberFormatException e) {
+				return new Result(position, "not a number: " + e.getMessage());
+			}
+
+			Player.BitBoard board = boards[size];
+			if (board == null || board.patterns.weights != Player.weights()) { // first position of this size, or new weights
+				if (board != null) {tt.clear();}
+				board = boards[size] = new Player.BitBoard(size);
+				searches[size] = null;
+				threats[size] = null;
+			} else {board.clear();}
+			int white = 0, black = 0;
+			for (int sq = 0; sq < cells.length; sq++) {
+				if (cells[sq] >= 0) {board.make(sq, cells[sq]);}
+				if (cells[sq] == 0) {white++;} else if (cells[sq] == 1) {black++;}
+			}
+			int side = white <= black ? 0 : 1;
+			tt.newSearch();
+
+			Player.Search search = searches[size];
+			if (search == null) {search = searches[size] = new Player.Search(board, side, tt, clock);}
+			search.max_depth = depth + 1;
+			search.use_pvs = true; // the principal variation comes from the PVS
+			search.reset(side, clock);
+			if (board.hasFive(0) || board.hasFive(1) || board.moveCount() == 0) { // game over - nothing to search
+				int[] none = {-1, -1, board.getGlobalScore(side, side), 0};
+				return new Result(position, none, 0, new int[0], 0, (System.nanoTime() - tStart) / 1000000, false);
+			}
+
+			// threat search first, as in chooseMove
+			Player.ThreatSearch threat = threats[size];
+			if (threat == null) {threat = threats[size] = new Player.ThreatSearch(board, Player.threat_nodes);}
+			threat.reset();
+			threat.clock = new Player.TimeManager(System.nanoTime(), seconds * Player.threat_time);
+			int win = threat.findWin(side);
+			if (win >= 0) {
+				int[] move = {win / size, win % size, 20*Player.MAX_SCORE, 0};
+				return new Result(position, move, 0, new int[] {win}, threat.nodes, (System.nanoTime() - tStart) / 1000000, true);
+			}
+			search.root_moves = threat.refutations(side);
+
+			int[] move = search.iterate(1);
+			return new Result(position, move, search.stats.depth_reached, search.stats.pv, search.nodes + threat.nodes,
+				(System.nanoTime() - tStart) / 1000000, false);
+		}
+	}
+
+	final int threads;
+	final double seconds; // time limit per position
+	final int depth; // deepest iteration per position
+	final int tt_size_mb; // transposition table of each worker
+	final ExecutorService pool;
+	final ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+	long positions; // lines analysed by analyze(BufferedReader, Consumer)
+
+	public Analyzer(int threads, double seconds, int depth, int tt_size_mb) {
+		this.threads = threads;
+		this.seconds = seconds;
+		this.depth = depth;
+		this.tt_size_mb = tt_size_mb;
+		this.pool = Executors.newFixedThreadPool(threads, runnable -> {Thread t = new Thread(runnable, "gomoku-analyzer"); t.setDaemon(true); return t;});
+	}
+
+	Result analyze(long position, String line) {
+		Worker worker = workers.get();
+		if (worker == null) {worker = new Worker(); workers.set(worker);}
+		return worker.analyze(position, line.trim());
+	}
+
+	public Result analyze(String line) {
+		/** Analyses one position on the calling thread.
+		 **/
+		return analyze(0, line);
+	}
+
+	public void analyze(BufferedReader in, Consumer<Result> out) throws IOException, InterruptedException {
+		/** Analyses every position of in on the worker pool, passing the results to out in input order.
+		 **/
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) {continue;}
+			long position = positions++;
+			pending.add(pool.submit(() -> analyze(position, trimmed)));
+			if (pending.size() >= 2*threads) {out.accept(result(pending.poll()));}
+		}
+		while (!pending.isEmpty()) {out.accept(result(pending.poll()));}
+	}
+
+	static Result result(Future<Result> future) throws InterruptedException {
+		try {return future.get();}
+		catch (ExecutionException e) {throw new IllegalStateException("analysis failed", e.getCause());}
+	}
+
+	public void close() {
+		/** Stops the worker pool and frees the worker of the calling thread (workers of other threads that called
+		 *  analyze(String) are freed when those threads end).
+		 **/
+		pool.shutdownNow();
+		workers.remove();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		double seconds = Player.time_limit;
+		int depth = Player.depth_cutoff - 1;
+		int tt_size_mb = 16;
+		String file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads")) {threads = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("-time")) {seconds = Double.parseDouble(args[++i]);}
+			else if (args[i].equals("-depth")) {depth = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("-tt")) {tt_size_mb = Integer.parseInt(args[++i]);}
+			else {file = args[i];}
+		}
+		Analyzer analyzer = new Analyzer(threads, seconds, depth, tt_size_mb);
+		PrintStream out = new PrintStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(java.io.FileDescriptor.out), 1 << 16), false);
+		try (BufferedReader in = new BufferedReader(file == null ? new InputStreamReader(System.in) : new FileReader(file))) {
+			analyzer.analyze(in, result -> out.println(result.toJson()));
+		}
+		out.flush();
+		analyzer.close();
+	}
+
+}
@@ -0,0 +1,109 @@
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Offline generator of the opening book read by Player.OpeningBook.
+ *  Every position of the first plies is searched with a longer time limit and a deeper depth cut-off than in a game,
+ *  and its best move is stored. For each colour the engine can play, the tree only follows the engine's book move and
+ *  every reply of the opponent (any position next to a piece, any position of the empty board), so the book answers
+ *  whatever opening the opponent chooses. Positions equal up to rotation and reflection are searched once.
+ *    javac *.java && java BookGenerator [file] [plies] [seconds per position] [depth cut-off] [board size]
+ **/
+
+class BookGenerator {
+
+	static String file = "book.bin";
+	static int plies = 5; // positions with fewer pieces than this are in the book
+	static double seconds = 5; // time limit of each search
+	static int depth = 10; // depth cut-off of each search
+	static int size = Player.BitBoard.DEFAULT_SIZE;
+
+	static final Map<Long, int[]> book = new HashMap<Long, int[]>(); // canonical hash -> [canonical move, score]
+	static final Set<Long> expanded = new HashSet<Long>(); // canonical hash ^ ZOBRIST_MAX[engine side] of the positions expanded
+	static final Player player = new Player(); // one player for all the searches - its transposition table is kept
+	static long tStart;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {file = args[0];}
+		if (args.length > 1) {plies = Integer.parseInt(args[1]);}
+		if (args.length > 2) {seconds = Double.parseDouble(args[2]);}
+		if (args.length > 3) {depth = Integer.parseInt(args[3]);}
+		if (args.length > 4) {size = Integer.parseInt(args[4]);}
+		Player.book_file = null; // search every position, even the ones of an older book
+		Player.ponder = false;
+		Player.time_limit = seconds;
+		Player.depth_cutoff = depth;
+
+		tStart = System.nanoTime();
+		for (int engine = 0; engine < 2; engine++) {
+			expand(new Color[size][size], Color.WHITE, engine, 0);
+		}
+
+		long[] keys = new long[book.size()];
+		int[] moves = new int[book.size()];
+		int[] scores = new int[book.size()];
+		int count = 0;
+		for (Map.Entry<Long, int[]> entry : book.entrySet()) {
+			keys[count] = entry.getKey();
+			moves[count] = entry.getValue()[0];
+			scores[count] = entry.getValue()[1];
+			count++;
+		}
+		Player.OpeningBook.write(file, size, keys, moves, scores, count);
+		System.out.printf("%d positions written to %s in %.0fs%n", count, file, (System.nanoTime() - tStart) / 1e9);
+	}
+
+	static void expand(Color[][] board, Color turn, int engine, int ply) {
+		/** Adds the positions from board (turn to move, ply pieces) to the book: the engine's move is searched and
+		 *  followed, every opponent's reply is followed.
+		 **/
+		Player.BitBoard bitboard = Player.BitBoard.fromColors(board);
+		if (ply >= plies || bitboard.hasFive(0) || bitboard.hasFive(1) || bitboard.moveCount() == 0) {return;}
+		int t = bitboard.canonicalSymmetry();
+		long key = bitboard.symmetricHash(t);
+		if (!expanded.add(key ^ Player.BitBoard.ZOBRIST_MAX[engine])) {return;} // transposition (or symmetry) of a position already expanded
+		Color next = turn.equals(Color.WHITE) ? Color.BLACK : Color.WHITE;
+
+		if (Player.BitBoard.side(turn) == engine) {
+			int[] entry = book.get(key);
+			if (entry == null) {
+				entry = search(board, turn, bitboard, t);
+				book.put(key, entry);
+			}
+			int sq = bitboard.geometry.inverse[t][entry[0]];
+			board[sq / size][sq % size] = turn;
+			expand(board, next, engine, ply + 1);
+			board[sq / size][sq % size] = null;
+		} else {
+			for (int sq = 0; sq < size*size; sq++) {
+				if (!bitboard.isEmpty(sq) || (ply > 0 && !isFrontier(bitboard, sq))) {continue;}
+				board[sq / size][sq % size] = turn;
+				expand(board, next, engine, ply + 1);
+				board[sq / size][sq % size] = null;
+			}
+		}
+	}
+
+	static boolean isFrontier(Player.BitBoard bitboard, int sq) {
+		for (int around : bitboard.geometry.neighbours[sq]) {
+			if (!bitboard.isEmpty(around)) {return true;}
+		}
+		return false;
+	}
+
+	static int[] search(Color[][] board, Color turn, Player.BitBoard bitboard, int t) {
+		/** Deep search of the position - returns [move in the canonical position, score].
+		 **/
+		Color[][] copy = new Color[size][];
+		for (int row = 0; row < size; row++) {copy[row] = board[row].clone();}
+		Move move = player.chooseMove(copy, turn);
+		Player.SearchStats stats = player.getLastStats();
+		int sq = move.row*size + move.col;
+		System.out.printf("%5d  %-6s ply %d  move %d,%d  score %d  depth %d  %dms  (%.0fs)%n", book.size() + 1, turn.equals(Color.WHITE) ? "white" : "black",
+			bitboard.pieces, move.row, move.col, stats.score, stats.depth_reached, stats.time_ms, (System.nanoTime() - tStart) / 1e9);
+		return new int[] {bitboard.geometry.symmetry[t][sq], stats.score};
+	}
+
+}
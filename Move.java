@@ -0,0 +1,15 @@
+/** Move returned by GomokuPlayer.chooseMove: the position (row, col) of the piece to place.
+ *  Its shape is fixed by the referee (GomokuBoard reads row and col, HumanPlayer builds it with Move(int, int)).
+ **/
+
+public class Move {
+
+	public int row;
+	public int col;
+
+	public Move(int row, int col) {
+		this.row = row;
+		this.col = col;
+	}
+
+}
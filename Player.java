@@ -2,6 +2,9 @@ import java.awt.Color;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 //import java.util.Comparator;
 
 /** Minimax algorithm with alpha-beta pruning.
@@ -15,6 +18,7 @@ import java.util.Collections;
  *	Other strategies were explored to improve the algorithm, such as  using iterative deepening, filtering bad moves and sorting
  *  the moves according to proximity to player's pieces. In addition, a  time-based cut-off was also implemented( ie. stopping search under the 10s constrain).
  *  Finally, 2 forced moves where also hard-coded, such as ending the game or blocking an opponent's winning move.
+ *  The search itself runs on a bitboard copy of the board (see BitBoard), converted once per move.
  *  More details are provided in the report and in the commented code.
  *	This code was tested in the ITL machines and everything was working fine.
  **/
@@ -22,58 +26,247 @@ import java.util.Collections;
 class Player extends GomokuPlayer {
 
 	public static final int MAX_SCORE = 100000000; // max score possible is +-20*MAX_SCORE used to represent win/loss - 5pieces in a row
-	public static Color MaxPlayer;
-	public static Color MinPlayer;
-	public static final int depth_cutoff = 8;
-	public static final double time_limit = 9.9;
+	public static Color MaxPlayer; // player the Color[][] evaluation (getGlobalScore) is relative to - set by its callers,
+	public static Color MinPlayer; // chooseMove does not use them
+	public static int depth_cutoff = 8; // iterations stop before this depth (BookGenerator searches its positions deeper)
+	public static double time_limit = 9.9; // hard limit per move in seconds - the referee forfeits the game at 10s, keep a safety margin
+	public static boolean time_predict = true; // do not start a depth that is not expected to finish in time
+	public static int tt_size_mb = 64; // memory used by the transposition table
+	public static boolean tt_keep_between_moves = true; // reuse the table across consecutive chooseMove calls of the same game
+	public static boolean split_patterns = true; // also score split sets (X.XX, XX.XX, ...) in the bitboard evaluation
+	public static int threads = 1; // search threads (Lazy SMP) - 1 keeps the search single-threaded and deterministic
+	public static boolean stats_timing = false; // also measure evaluation vs move generation time (2 System.nanoTime calls per node)
+	public static String stats_log = null; // file getting one JSON line of search statistics per move (null - no log)
+	public static boolean ponder = false; // keep searching on the opponent's time (uses a core while the opponent thinks)
+	public static double ponder_limit = 60; // longest time in seconds a ponder search runs if the next move never comes
+	public static boolean threat_search = true; // look for forced wins (continuous fours, then threes) and losses before the alpha-beta
+	public static int vcf_depth = 12; // most fours in a row the threat search plays (24 plies with the blocks)
+	public static int vct_depth = 3; // most threes (or fours) played before the continuous fours
+	public static long threat_nodes = 100000; // node budget of the threat search per move
+	public static double threat_time = 0.25; // share of time_limit the threat search may use
+	public static String search_algorithm = "minimax"; // "minimax" (MaxPlayerAB/MinPlayerAB) or "pvs" (negamax principal variation search)
+	public static String book_file = "book.bin"; // opening book looked up before any search (null or a missing file - no book)
+	public static int endgame_empty = 17; // exact win/draw/loss solver from this many empty positions down (0 - off), tuned with PlayerBenchmark endgame
+	public static double endgame_time = 2; // most seconds the endgame solver runs before the search takes over
+	public static int endgame_tt_mb = 16; // memory used by the endgame solver's transposition table
+	public static int aspiration_window = 2000; // half width of the PVS window around the previous iteration's score (0 - full window)
+	public static boolean lmr = true; // late move reductions - quiet moves after the first lmr_moves are searched 1-2 plies shallower first
+	public static int lmr_moves = 3; // moves of a node never reduced (the best ordered ones)
+	public static int lmr_depth = 3; // least remaining depth where moves are reduced
+	public static boolean futility = true; // futility pruning - 1 ply from the leaves, quiet moves are skipped when the static score is futility_margin short of alpha
+	public static int futility_margin = 1000;
+	public static boolean razoring = true; // razoring - 2 plies from the leaves, only 1 ply is searched when the static score is razor_margin short of alpha
+	public static int razor_margin = 20000;
+	public static boolean check_extensions = true; // the forced answer to a four (blocking its five square) is searched 1 ply deeper
+	public static String weights_file = "weights.properties"; // evaluation weights (see Weights) - a missing file or value that is not a number keeps the default ones
+	static volatile int[] weights; // weights read from weights_file ...
+	static String weights_loaded; // ... which was this one
+	public static String cache_file = null; // search results kept across games and shared by processes (see SearchCache) - null: no cache
+	public static int cache_mb = 64; // size of a new cache file
+	public static int cache_depth = 4; // least depth of a search result stored in the cache
+
+	TransTable tt; // kept between the moves of the game played by this instance
+	int[] tt_weights; // evaluation weights of the scores in tt
+	SearchStats last_stats; // statistics of the last chooseMove call
+	ExecutorService pool; // helper threads of the parallel search
+	int pool_threads;
+	Thread ponder_thread; // search running on the opponent's time
+	TimeManager ponder_clock;
+	Search ponder_search; // last ponder search ...
+	BitBoard ponder_position; // ... and the position it searched (after our move, before the opponent's)
+	EndgameSolver endgame; // kept between the moves of the game, like the transposition table
 
 	public Move chooseMove(Color[][] board, Color me) {
 
 		// initialise variables
-		long tStart = System.currentTimeMillis(); // start timer
+		long tStart = System.nanoTime(); // start timer
+		TimeManager clock = new TimeManager(tStart, time_limit);
+
+	// convert the referee's board once at the root - the search only works on bitboards (one copy per thread)
+	// the player's colour stays local (max_side): MaxPlayer/MinPlayer are only for the Color[][] evaluation and are
+	// not written here, games played in parallel would race on them
+	BitBoard bitboard = BitBoard.fromColors(board);
+	int max_side = BitBoard.side(me);
+
+	stopPondering(); // the ponder search uses the transposition table - it must be over before the table is touched
+
+	// transposition table - shared by all the iterations of the iterative deepening and by all the threads
+	if(tt == null || tt.size_mb != tt_size_mb){tt = new TransTable(tt_size_mb);
+	}else if(!tt_keep_between_moves || tt_weights != bitboard.patterns.weights){tt.clear();} // scores of other weights are not reused
+	tt_weights = bitboard.patterns.weights;
+	tt.newSearch();
+
+	// opening book - positions searched deeply offline, played without any search
+	Search search = new Search(bitboard, max_side, tt, clock);
+	int[] final_move = null;
+	OpeningBook book = book_file == null ? null : OpeningBook.get(book_file);
+	if(book != null){
+		final_move = book.probe(bitboard);
+		search.stats.book_hit = final_move != null;
+	}
 
-		// set player's colors
-	 	MaxPlayer = me;
-		if (MaxPlayer.equals(Color.WHITE)){
-			MinPlayer = Color.BLACK;
-		}else{
-			MinPlayer = Color.WHITE;
-	 }
+	long entry = tt.probe(bitboard.hash ^ BitBoard.ZOBRIST_MAX[max_side]); // root entry (ponder search, search cache)
+
+	// search cache - results of earlier games: one as deep as this search would go is played at once, a shallower one
+	// goes in the transposition table, so the iterations it covers end at the root
+	SearchCache cache = cache_file == null ? null : SearchCache.get(cache_file);
+	if(final_move == null && cache != null){
+		int[] cached = cache.probe(bitboard, max_side);
+		if(cached != null && cached[3] >= depth_cutoff - 1){
+			final_move = new int[] {cached[0], cached[1], cached[2], 0};
+			search.stats.cache_hit = true;
+			search.stats.depth_reached = cached[3];
+		}else if(cached != null && TransTable.depth(entry) < cached[3]){ // a deeper ponder result is kept
+			tt.store(bitboard.hash ^ BitBoard.ZOBRIST_MAX[max_side], cached[3], TransTable.EXACT, cached[2], cached[0]*bitboard.size + cached[1]);
+		}
+		search.stats.cache_depth = cached == null ? -1 : cached[3];
+	}
 
-	int alpha = -Integer.MAX_VALUE; // alpha-beta init values
-	int beta = Integer.MAX_VALUE;
+	// endgame - few empty positions left: a proven win or draw is played at once; a proven loss is left to the search,
+	// which plays the move that resists best
+	if(final_move == null && bitboard.cells - bitboard.pieces <= endgame_empty){
+		long tEndgame = System.nanoTime();
+		if(endgame == null || endgame.size != bitboard.size){endgame = new EndgameSolver(bitboard.size, endgame_tt_mb);}
+		int result = endgame.solve(bitboard, max_side, new TimeManager(tEndgame, Math.min(endgame_time, time_limit / 2)));
+		if(result >= 0 && endgame.best_move >= 0){
+			final_move = new int[] {endgame.best_move / bitboard.size, endgame.best_move % bitboard.size, result == 1 ? 20*MAX_SCORE : 0, 0};
+		}
+		search.stats.endgame_result = result;
+		search.stats.endgame_nodes = endgame.nodes;
+		search.stats.endgame_ms = (System.nanoTime() - tEndgame) / 1000000;
+	}
 
-	// moves are stored as integer arrays of length 4 in the following way: [x_pos, y_pos, score, time_excceded?]
-	int[] this_move = new int[4]; // store move at current depth (ICS)
-	int[] final_move = new int[4]; // store final move executed
-	// initialise final move
-	final_move[0] = -1; // no move yet
-	final_move[1] = -1;
-	final_move[2] = -Integer.MAX_VALUE; // worst case
-	final_move[3] = 0; // time limit still not exceeded
+	// threat-space search - a forced win is played at once; if the opponent has one, only the moves refuting it are searched
+	if(final_move == null && threat_search){
+		long tThreats = System.nanoTime();
+		ThreatSearch threats = new ThreatSearch(bitboard, threat_nodes);
+		threats.clock = new TimeManager(tThreats, time_limit * threat_time);
+		int win = threats.findWin(max_side);
+		if(win >= 0){
+			final_move = new int[] {win / bitboard.size, win % bitboard.size, 20*MAX_SCORE, 0};
+			search.stats.threat_win = true;
+		}else{
+			search.root_moves = threats.refutations(max_side);
+			search.stats.threat_loss = threats.lost;
+			search.stats.threat_refutations = search.root_moves == null ? -1 : threats.refutation_count;
+		}
+		search.stats.threat_nodes = threats.nodes;
+		search.stats.threat_ms = (System.nanoTime() - tThreats) / 1000000;
+	}
 
-	// Iterative deepening - this is executed until time is exceeded or depth cut-off is reached
-	for (int depth = 1; depth < depth_cutoff; depth++) {
+	// ponder hit - the ponder search finished the depth cut-off on the position before the opponent's move, so this
+	// position was searched to the depth cut-off while the opponent was thinking (after the endgame and threat searches,
+	// which the ponder search did not do - its move must be one of the refutations when they restrict the root)
+	int hash_move = TransTable.move(entry);
+	if(final_move == null && ponderedBefore(bitboard, max_side) && entry != 0 && TransTable.bound(entry) == TransTable.EXACT
+			&& TransTable.depth(entry) >= depth_cutoff - 1 && hash_move >= 0 && hash_move < bitboard.cells && bitboard.isEmpty(hash_move)
+			&& (search.root_moves == null || search.root_moves[hash_move])){
+		final_move = TransTable.toMove(entry, bitboard.size);
+		search.stats.ponder_hit = true;
+		search.stats.depth_reached = TransTable.depth(entry);
+	}
+	ponder_search = null;
+	ponder_position = null;
+
+	// Lazy SMP - helper threads run the same iterative deepening on their own board copy and only share the
+	// transposition table, so the main thread finds more of its positions already searched
+	List<Future<int[]>> helpers = new ArrayList<Future<int[]>>();
+	List<Search> helper_searches = new ArrayList<Search>();
+	if(threads > 1 && (pool == null || pool_threads != threads)){
+		if(pool != null){pool.shutdownNow();}
+		pool = Executors.newFixedThreadPool(threads - 1, runnable -> {Thread t = new Thread(runnable, "gomoku-search"); t.setDaemon(true); return t;});
+		pool_threads = threads;
+	}
+	for (int id = 1; id < threads && final_move == null; id++) {
+		Search helper = new Search(bitboard.copy(), max_side, tt, clock);
+		helper.root_moves = search.root_moves;
+		int first_depth = 1 + id % 2; // half of the helpers start one depth ahead of the main thread
+		helpers.add(pool.submit(() -> helper.iterate(first_depth)));
+		helper_searches.add(helper);
+	}
 
-		if(depth==1){this_move = MaxPlayerAB(board, alpha, beta, depth, tStart, true); // true variable to indicate searching for forced moves (only performed at the first level of the search)
-		}else{this_move = MaxPlayerAB(board, alpha, beta, depth, tStart, false);}
+	if(final_move == null){final_move = search.iterate(1);}
 
-		if(this_move[3]==0 && this_move[2]!=-20*MAX_SCORE){ // if time has not exceeded and its not a gameover move
-			final_move = this_move; // update final move
-			if (final_move[2] == 20*MAX_SCORE){;break;} // this is used to signal forced moves - finish game or block opponent from winning
-		}
+	clock.stop(); // main search finished - helpers stop at their next node
+	for (Future<int[]> helper : helpers) {
+		try {helper.get();} catch (Exception e) {} // a failing helper must not cost the game
+	}
 
+	// search cache - deep results (the endgame solver's as PROVEN) are kept for the next games
+	if(cache != null && final_move[0] >= 0 && !search.stats.book_hit && !search.stats.cache_hit){
+		// the endgame solver tries every empty position, so its result only depends on the position and the side to move -
+		// the key; threat search wins are not stored: the VCT does not try every defence, so they are not proven and
+		// the threat search finds them again
+		boolean proven = search.stats.endgame_result >= 0 && search.stats.depth_reached == 0;
+		int depth = proven ? SearchCache.PROVEN : search.stats.depth_reached;
+		if(depth >= cache_depth && !search.stats.threat_win){cache.store(bitboard, max_side, depth, final_move[2], final_move[0]*bitboard.size + final_move[1]);}
 	}
 
+	// statistics of the main thread (helpers only add their node count)
+	last_stats = search.stats;
+	last_stats.finish(final_move, clock.elapsedMs(), threads);
+	for (Search helper : helper_searches) {last_stats.helper_nodes += helper.nodes;}
+	if(stats_log != null){last_stats.log(stats_log);}
+
+	if(ponder && final_move[0] >= 0){startPondering(bitboard, max_side, final_move[0]*bitboard.size + final_move[1]);}
+
 	return new Move(final_move[0], final_move[1]); // execute final move
 	} // chooseMove()
 
+	void startPondering(BitBoard bitboard, int max_side, int move) {
+		/** Searches the position after our move (all the opponent's replies, the predicted one first) in the background
+		 *  until the next chooseMove call, so the transposition table is warm when it comes. Works on a copy of the
+		 *  bitboard - the referee's board is never touched.
+		 **/
+		BitBoard position = bitboard.copy();
+		position.make(move, max_side);
+		if(position.hasFive(max_side) || position.moveCount() == 0){return;} // game over - nothing to ponder
+
+		ponder_clock = new TimeManager(System.nanoTime(), ponder_limit);
+		Search search = new Search(position, max_side, tt, ponder_clock);
+		ponder_search = search;
+		ponder_position = position.copy();
+		ponder_thread = new Thread(() -> {
+			try {search.ponder();} catch (RuntimeException e) {} // pondering must never cost the game
+		}, "gomoku-ponder");
+		ponder_thread.setDaemon(true);
+		ponder_thread.start();
+	}
+
+	boolean ponderedBefore(BitBoard bitboard, int max_side) {
+		/** Whether the last ponder search finished the depth cut-off on this position less the opponent's last move.
+		 **/
+		if(ponder_search == null || ponder_search.pondered < depth_cutoff || bitboard.size != ponder_position.size
+				|| bitboard.pieces != ponder_position.pieces + 1){return false;}
+		for (int sq = 0; sq < bitboard.cells; sq++) {
+			if(!bitboard.isEmpty(sq) && ponder_position.isEmpty(sq)){ // the opponent's move
+				return (ponder_position.hash ^ bitboard.geometry.zobrist[1 - max_side][sq]) == bitboard.hash;
+			}
+		}
+		return false;
+	}
+
+	public void stopPondering() {
+		/** Cancels the ponder search (if any) and waits for it to stop - at most TIME_CHECK_NODES nodes.
+		 **/
+		if(ponder_thread == null){return;}
+		ponder_clock.stop();
+		try {ponder_thread.join();} catch (InterruptedException e) {Thread.currentThread().interrupt();}
+		ponder_thread = null;
+	}
+
+	public SearchStats getLastStats() {
+		/** Statistics of the last move chosen by this player (null before the first move).
+		 **/
+		return last_stats;
+	}
+
 
 	public static boolean isGameOver(Color[][] board, Color turn) {
 		/** Check if its terminal condition.
 		 **/
-		// get evaluation
-		int score = getGlobalScore(board, turn);
+		// get evaluation - relative to turn, a win of either side is a win whoever MaxPlayer is
+		int score = getGlobalScore(board, turn, turn.equals(Color.WHITE) ? Color.BLACK : Color.WHITE, turn);
 
 		return(
 			score == 20*MAX_SCORE ||    // win (+-20*MAX_SCORE used to represent win/loss - 5pieces in a row)
@@ -83,117 +276,1267 @@ class Player extends GomokuPlayer {
 
 	}
 
-	public static int[] MaxPlayerAB(Color[][] board, int alpha, int beta, int depth, long tStart, boolean first_level) {
-		/** Max player with alpha-beta pruning
+	public static final class Search {
+		/** State of one search thread: its own bitboard, the sides and the time-out flag. Only the transposition table
+		 *  and the clock are shared with the other threads.
 		 **/
+		final BitBoard board;
+		int max_side; // MaxPlayer/MinPlayer as bitboard sides (0 - white, 1 - black)
+		int min_side;
+		final TransTable tt;
+		TimeManager clock; // time limit, also stopped by the main thread when its search is over
+		boolean time_out; // set once a node finds the time exceeded - results of that search are not stored
+		long nodes; // positions visited by this thread
+		int max_depth = depth_cutoff; // iterations stop before this depth
+		volatile int pondered; // deepest iteration of ponder completed
+		SearchStats stats = new SearchStats(depth_cutoff); // per-depth counters of this thread
+		int iteration; // depth of the current iteration of the iterative deepening
+		int[] root_best = new int[4]; // best root move among the ones fully searched in the current iteration
+
+		// Move ordering - buffers sized by the board, allocated once per ply reached so generating moves allocates nothing
+		final int size; // board size - a move sq is the position (sq / size, sq % size)
+		final int[][] move_buf; // moves of each ply
+		final long[][] move_key; // ordering key of each move (higher first)
+		final int[][] killers; // last 2 moves that caused a cutoff at each ply
+		final int[][] history; // history heuristic - cutoffs per (side, position) weighted by depth^2
+		int ply; // number of moves made since the root
+		boolean[] root_moves; // moves searched at the root (null - all of them)
+		int pv_move = -1; // move of the previous principal variation at this ply - searched before the hash move
+
+		// Principal variation search - triangular PV table: pv[ply][ply..pv_length[ply]-1] is the best line found from ply
+		boolean use_pvs = "pvs".equals(search_algorithm);
+		final int[][] pv;
+		final int[] pv_length;
+		int[] last_pv = new int[0]; // principal variation of the last iteration completed, followed first by the next one
+		boolean follow_pv; // the moves made so far are the start of last_pv
+
+		// Selective search - the switches of each search, so a caller can change them without touching the static ones
+		boolean use_lmr = lmr;
+		boolean use_futility = futility;
+		boolean use_razoring = razoring;
+		boolean use_extensions = check_extensions;
+
+		public Search(BitBoard board, int max_side, TransTable tt, TimeManager clock) {
+			this.board = board;
+			this.size = board.size;
+			int max_ply = board.cells + 1;
+			move_buf = new int[max_ply][];
+			move_key = new long[max_ply][];
+			killers = new int[max_ply][2];
+			history = new int[2][board.cells];
+			pv = new int[max_ply + 1][];
+			pv_length = new int[max_ply + 1];
+			this.max_side = max_side;
+			this.min_side = 1 - max_side;
+			this.tt = tt;
+			this.clock = clock;
+			for (int[] killer : killers) {killer[0] = -1; killer[1] = -1;}
+		}
 
-		// Initialise best move and score
-		int[] best_move = new int[4]; // store [pos x, pos y, score]
-		best_move[0] = -1; // initialise best move to (-1,-1) - no move yet
-		best_move[1] = -1;
-		best_move[3] = 0; // time not exceeded
-
-
-		// Terminal state condition
-		double elapsedSeconds = (System.currentTimeMillis() - tStart) / 1000.0;
-		if(depth == 0 || elapsedSeconds>=time_limit || isGameOver(board, MaxPlayer)) { // check if depth cut-off reached or time elapsed or is terminal state
-			if(elapsedSeconds>=time_limit){best_move[3] = 1;} // set time limit = 1 (time exceeded)
-			best_move[2] = getGlobalScore(board, MaxPlayer);
-			return best_move;
+		public void reset(int max_side, TimeManager clock) {
+			/** Prepares the search for a new position of its board, keeping the buffers (a search reused for many
+			 *  positions allocates nothing more): clears the counters, killer moves, history and principal variation.
+			 **/
+			this.max_side = max_side;
+			this.min_side = 1 - max_side;
+			this.clock = clock;
+			stats = new SearchStats(max_depth);
+			time_out = false;
+			nodes = 0;
+			iteration = 0;
+			ply = 0;
+			root_moves = null;
+			pv_move = -1;
+			last_pv = new int[0];
+			follow_pv = false;
+			for (int[] killer : killers) {killer[0] = -1; killer[1] = -1;}
+			for (int[] counts : history) {java.util.Arrays.fill(counts, 0);}
 		}
 
-		// Get possible filtered moves from current state of the board
-		ArrayList<Position> moves = getFiltMoves(board, MaxPlayer);
+		int generateMoves(int side, int hash_move) {
+			/** Writes the filtered moves of the current ply in move_buf and their ordering keys in move_key:
+			 *  principal variation move (PVS only), hash move, then killer moves, then history heuristic, then threat score
+			 *  (ties). Returns the number of moves.
+			 **/
+			if (move_buf[ply] == null) {move_buf[ply] = new int[board.cells]; move_key[ply] = new long[board.cells];}
+			int[] moves = move_buf[ply];
+			long[] keys = move_key[ply];
+			int[] killer = killers[ply];
+			int count = 0;
+			if (ply == 0 && root_moves != null) { // root restricted to the refutations of the opponent's forced win -
+				for (int sq = 0; sq < board.cells; sq++) { // not only filtered moves, blocks of his fours may be away from every piece
+					if (root_moves[sq] && board.isEmpty(sq)) {moves[count++] = sq;}
+				}
+			} else {count = board.getFiltMoves(moves);}
+			for (int i = 0; i < count; i++) {
+				int sq = moves[i];
+				long key;
+				if (sq == pv_move) {key = Long.MAX_VALUE;}
+				else if (sq == hash_move) {key = Long.MAX_VALUE - 1;}
+				else if (sq == killer[0]) {key = Long.MAX_VALUE - 2;}
+				else if (sq == killer[1]) {key = Long.MAX_VALUE - 3;}
+				else {key = ((long)history[side][sq] << 32) | board.threatScore(sq, side);}
+				keys[i] = key;
+			}
+			return count;
+		}
 
-		// Initialise score
-		best_move[2] = -Integer.MAX_VALUE; //  MAX player worst-case
+		int nextMove(int i, int count) {
+			/** Selection sort step: brings the best remaining move of the ply to position i and returns it
+			 *  (moves after a cutoff are never sorted).
+			 **/
+			int[] moves = move_buf[ply];
+			long[] keys = move_key[ply];
+			int best = i;
+			for (int j = i + 1; j < count; j++) {
+				if (keys[j] > keys[best]) {best = j;}
+			}
+			int sq = moves[best]; moves[best] = moves[i]; moves[i] = sq;
+			long key = keys[best]; keys[best] = keys[i]; keys[i] = key;
+			return sq;
+		}
 
-		// Find best children state
-		for(Position move : moves) {
+		void cutoff(int sq, int side, int depth) {
+			/** Remembers a move that caused a beta cutoff (killer moves and history heuristic).
+			 **/
+			int[] killer = killers[ply];
+			if (killer[0] != sq) {killer[1] = killer[0]; killer[0] = sq;}
+			history[side][sq] = Math.min(history[side][sq] + depth*depth, 1 << 30);
+		}
 
-			//		check if its forced play
-					if(first_level){ // first level
-						board[move.row][move.col] = MaxPlayer;
-						if(getScore(board, MaxPlayer, MaxPlayer)==20*MAX_SCORE) {
-							best_move[0] = move.row;
-							best_move[1] = move.col;
-							best_move[2] = 20*MAX_SCORE;
-							return best_move;}
+		int threat(int sq, int side) {
+			/** Class of the move sq of side for the selective search: 2 - takes the opponent's five square, the forced answer
+			 *  to his four (extended), 1 - makes a three or a four or takes a square of the opponent's three (never reduced
+			 *  nor pruned), 0 - quiet. Only the answer is extended: extending the four as well searched every four and block
+			 *  pair 2 plies deeper, which cost more depth than it found.
+			 **/
+			int own = board.lineThreat(sq, side), opp = board.lineThreat(sq, 1 - side);
+			if (opp >= 5) {return 2;}
+			if (own >= 3 || opp >= 4) {return 1;}
+			return 0;
+		}
 
-						board[move.row][move.col] = MinPlayer;
-						if(getScore(board, MinPlayer, MaxPlayer)==20*MAX_SCORE) {
-							best_move[0] = move.row;
-							best_move[1] = move.col;
-							best_move[2] = 20*MAX_SCORE;
-							return best_move;}; // prevent game over
-							board[move.row][move.col] = null;
+		int reduction(int i, int depth, int threat) {
+			/** Plies the late move reductions take off the i-th move of a node at depth: 0 for the first lmr_moves moves, the
+			 *  hash and killer moves and the non-quiet moves, 2 for the moves far down the list of a deep node, else 1.
+			 **/
+			if (!use_lmr || threat != 0 || depth < lmr_depth || i < lmr_moves || ply == 0 || move_key[ply][i] >= Long.MAX_VALUE - 3) {return 0;}
+			return i >= 3*lmr_moves && depth >= 5 ? 2 : 1;
+		}
 
-					} //forced play
+		public void ponder() {
+			/** Iterative deepening from the opponent's point of view (root is a min node), only filling the
+			 *  transposition table for our next move. Runs until the clock is stopped.
+			 **/
+			for (int depth = 1; depth <= max_depth && !time_out; depth++) { // one more level - the next root is one move deeper
+				iteration = depth;
+				if (use_pvs) {pvs(min_side, -Integer.MAX_VALUE, Integer.MAX_VALUE, depth);}
+				else {MinPlayerAB(board, -Integer.MAX_VALUE, Integer.MAX_VALUE, depth, false);}
+				if (!time_out) {pondered = depth;}
+			}
+		}
 
-			//System.out.println("move considered: (" + move.row + ","+move.col+")");
-				board[move.row][move.col] = MaxPlayer; // test children state
-				int[] this_move = MinPlayerAB(board, alpha, beta, depth-1, tStart,first_level); // min - go down another level
-				board[move.row][move.col] = null; // undo move
+		public int[] iterate(int first_depth) {
+			/** Iterative deepening from first_depth - this is executed until time is exceeded or depth cut-off is reached.
+			 *  Returns the move to play as [x_pos, y_pos, score, time_excceded?].
+			 **/
+			int alpha = -Integer.MAX_VALUE; // alpha-beta init values
+			int beta = Integer.MAX_VALUE;
+
+			// moves are stored as integer arrays of length 4 in the following way: [x_pos, y_pos, score, time_excceded?]
+			int[] this_move = new int[4]; // store move at current depth (ICS)
+			int[] lost_move = null; // move of the last iteration completed that found every move losing
+			int[] final_move = new int[4]; // store final move executed
+			// initialise final move
+			final_move[0] = -1; // no move yet
+			final_move[1] = -1;
+			final_move[2] = -Integer.MAX_VALUE; // worst case
+			final_move[3] = 0; // time limit still not exceeded
+			stats.selective(this);
+
+			// a legal move whatever the clock says: the first ordered root move, played if no iteration finishes (the
+			// clock is shared with the helper threads and may expire before a single root move of depth 1 is searched)
+			int[] first_move = null;
+			int count = generateMoves(max_side, -1);
+			if (count > 0) {
+				int sq = nextMove(0, count);
+				first_move = new int[] {sq / size, sq % size, -Integer.MAX_VALUE, 1};
+			}
 
-				if (this_move[2] > best_move[2]){ // if higher -> replace
-					best_move[0] = move.row;
-					best_move[1] = move.col;
-					best_move[2] = this_move[2];
-					best_move[3] = this_move[3];
+			for (int depth = first_depth; depth < max_depth; depth++) {
+
+				iteration = depth;
+				root_best = new int[] {-1, -1, -Integer.MAX_VALUE, 0};
+				long tIteration = System.nanoTime();
+				if(use_pvs){this_move = depth == 1 ? forcedMove() : null;
+					if(this_move == null){this_move = aspiration(depth, final_move[2], depth > first_depth);}
+				}else if(depth==1){this_move = MaxPlayerAB(board, alpha, beta, depth, true); // true variable to indicate searching for forced moves (only performed at the first level of the search)
+				}else{this_move = MaxPlayerAB(board, alpha, beta, depth, false);}
+
+				stats.iteration(depth, this_move, size, clock.elapsedMs());
+				if(this_move[3]==0 && this_move[0] >= 0 && this_move[2]==-20*MAX_SCORE){lost_move = this_move;}
+				if(use_pvs && this_move[3]==0){last_pv = java.util.Arrays.copyOf(pv[0], pv_length[0]); stats.pv = last_pv;}
+				if(this_move[3]==0 && this_move[2]!=-20*MAX_SCORE){ // if time has not exceeded and its not a gameover move
+					final_move = this_move; // update final move
+					if (final_move[2] == 20*MAX_SCORE){;break;} // this is used to signal forced moves - finish game or block opponent from winning
+				}else if(time_out && root_best[0] >= 0 && root_best[2] != -20*MAX_SCORE){
+					// unfinished iteration - the previous best move is searched first, so a root move fully searched is at least as good
+					final_move = root_best;
+					stats.partial_move = true;
+				}
+				if(time_out){break;}
+				if(time_predict && depth > first_depth && !clock.nextDepthFits(System.nanoTime() - tIteration, stats.nodes[depth], stats.nodes[depth-1])){
+					stats.predicted_stop = true;
+					break;
 				}
-				if(this_move[2]>=beta){return this_move;} // alpha-beta pruning - check upper limit; if ilegal, return move (cutoff)
-				if(this_move[2]>alpha){alpha = this_move[2];}  // alpha-beta pruning (update lower bound [alpha,beta])
+
 			}
-			return best_move;
+			if(final_move[0] < 0 && lost_move != null){
+				final_move = lost_move; // every move loses - play the one of the last iteration completed rather than no move
+			}
+			if(final_move[0] < 0 && first_move != null){final_move = first_move;} // no iteration finished in time
+			return final_move;
 		}
 
-		public static int[] MinPlayerAB(Color[][] board, int alpha, int beta, int depth, long tStart,boolean first_level) {
+		int[] MaxPlayerAB(BitBoard board, int alpha, int beta, int depth, boolean first_level) {
+			/** Max player with alpha-beta pruning
+			 **/
+
+			nodes++;
+			stats.nodes[iteration]++;
 
 			// Initialise best move and score
-			int[] best_move = new int[5]; // store [pos x, pos y, score]
+			int[] best_move = new int[4]; // store [pos x, pos y, score]
 			best_move[0] = -1; // initialise best move to (-1,-1) - no move yet
 			best_move[1] = -1;
-			best_move[3] = 0;
+			best_move[3] = 0; // time not exceeded
+
+
+			// Transposition table - position already searched deep enough (not when looking for forced moves)
+			long key = board.hash ^ BitBoard.ZOBRIST_MAX[max_side];
+			long entry = tt.probe(key);
+			if(entry != 0){stats.tt_hits[iteration]++;}
+			if(entry != 0 && !first_level && TransTable.depth(entry) >= depth){
+				int tt_score = TransTable.score(entry);
+				int bound = TransTable.bound(entry);
+				if(bound == TransTable.EXACT || (bound == TransTable.LOWER && tt_score >= beta) || (bound == TransTable.UPPER && tt_score <= alpha)){
+					stats.tt_cutoffs[iteration]++;
+					return TransTable.toMove(entry, size);
+				}
+			}
 
 			// Terminal state condition
-			double elapsedSeconds = (System.currentTimeMillis() - tStart) / 1000.0;
-			if(depth == 0 || elapsedSeconds>=time_limit || isGameOver(board, MinPlayer)) {
-				if(elapsedSeconds>=time_limit){best_move[3] = 1;}
-				best_move[2] = getGlobalScore(board, MinPlayer);
+			boolean out_of_time = clock.expired(nodes); // time elapsed or search stopped by the main thread
+			long tEval = stats.timing ? System.nanoTime() : 0;
+			if(depth == 0 || out_of_time || board.isGameOver(max_side, max_side)) { // check if depth cut-off reached or time elapsed or is terminal state
+				if(out_of_time){best_move[3] = 1; time_out = true;} // set time limit = 1 (time exceeded)
+				best_move[2] = board.getGlobalScore(max_side, max_side);
+				stats.leaf(iteration, tEval);
 				return best_move;
 			}
-			// Get possible moves from current state of the board
-			ArrayList<Position> moves = getFiltMoves(board,MinPlayer);
 
-			// Initialise score
-			best_move[2] = Integer.MAX_VALUE; //  MIN player worst-case
-
-			// Find best children
-			for(Position move : moves) {
+			// Get possible filtered moves from current state of the board, best first (the hash move is the best move found last time in this position)
+			long tMoves = stats.timing ? System.nanoTime() : 0;
+			int count = generateMoves(max_side, entry == 0 ? -1 : TransTable.move(entry));
+			stats.movegen(iteration, tEval, tMoves);
+
+			// Razoring and futility pruning - static score as if MaxPlayer passed, so a quiet move adds little to it
+			int static_score = 0;
+			boolean futile = false;
+			if(ply > 0 && !first_level && depth <= 2 && (use_razoring || use_futility)){
+				static_score = board.getGlobalScore(max_side, min_side);
+				if(depth == 2 && use_razoring && static_score + razor_margin <= alpha){depth = 1; stats.razorings[iteration]++;}
+				futile = depth == 1 && use_futility && static_score + futility_margin <= alpha;
+			}
+			boolean classify = use_lmr || use_extensions || futile;
+			int alpha_start = alpha;
 
-					board[move.row][move.col] = MinPlayer; // test children state
-					int[] this_move = MaxPlayerAB(board, alpha, beta, depth-1, tStart, first_level); // max - go down another level
-					board[move.row][move.col] = null;
+			// Initialise score
+			best_move[2] = -Integer.MAX_VALUE; //  MAX player worst-case
+
+			// Find best children state
+			for (int i = 0; i < count; i++) {
+				int sq = nextMove(i, count);
+
+				//		check if its forced play
+						if(first_level){ // first level
+							board.make(sq, max_side);
+							boolean win = board.hasFive(max_side);
+							board.unmake(sq, max_side);
+							board.make(sq, min_side);
+							boolean block = board.hasFive(min_side); // prevent game over
+							board.unmake(sq, min_side);
+							if(win || block) {
+								best_move[0] = sq / size;
+								best_move[1] = sq % size;
+								best_move[2] = 20*MAX_SCORE;
+								return best_move;}
+
+						} //forced play
+
+					int threat = classify ? threat(sq, max_side) : 0;
+					if(futile && threat == 0 && i > 0){ // quiet move - cannot bring the score up to alpha
+						stats.futility_prunes[iteration]++;
+						if(static_score + futility_margin > best_move[2]){best_move[2] = static_score + futility_margin;} // bound of the moves skipped
+						continue;
+					}
+					int new_depth = depth - 1;
+					if(threat == 2 && use_extensions && ply < 2*iteration){new_depth++; stats.extensions[iteration]++;}
+					int reduction = reduction(i, depth, threat);
+
+					board.make(sq, max_side); // test children state
+					ply++;
+					int[] this_move;
+					if(reduction > 0){ // late move - searched shallower first, again to full depth if it raises alpha
+						stats.lmr_reductions[iteration]++;
+						this_move = MinPlayerAB(board, alpha, beta, new_depth - reduction, first_level);
+						if(this_move[2] > alpha && !time_out){stats.lmr_researches[iteration]++; this_move = MinPlayerAB(board, alpha, beta, new_depth, first_level);}
+					}else{this_move = MinPlayerAB(board, alpha, beta, new_depth, first_level);} // min - go down another level
+					ply--;
+					board.unmake(sq, max_side); // undo move
+
+					if (ply == 0 && !time_out && this_move[2] > root_best[2]){ // root move fully searched before the time ran out
+						root_best = new int[] {sq / size, sq % size, this_move[2], 0};
+					}
 
-					if (this_move[2] < best_move[2]){
-						best_move[0] = move.row;
-						best_move[1] = move.col;
+					if (this_move[2] > best_move[2]){ // if higher -> replace
+						best_move[0] = sq / size;
+						best_move[1] = sq % size;
 						best_move[2] = this_move[2];
 						best_move[3] = this_move[3];
 					}
-					if(this_move[2]<=alpha){return this_move;} // alpha-beta pruning - check lower limit; if ilegal, return move (cutoff)
-					if(this_move[2]<beta){beta = this_move[2];} // alpha-beta pruning (update lower bound [alpha,beta])
+					if(this_move[2]>=beta){ // alpha-beta pruning - check upper limit; if ilegal, return move (cutoff)
+						cutoff(sq, max_side, depth);
+						stats.cutoff(iteration, i);
+						if(!time_out){tt.store(key, depth, TransTable.LOWER, this_move[2], sq);}
+						return this_move;}
+					if(this_move[2]>alpha){alpha = this_move[2];}  // alpha-beta pruning (update lower bound [alpha,beta])
 				}
-
+				if(!time_out){tt.store(key, depth, best_move[2] <= alpha_start ? TransTable.UPPER : TransTable.EXACT, best_move[2], best_move[0]*size + best_move[1]);}
 				return best_move;
 			}
 
+			int[] MinPlayerAB(BitBoard board, int alpha, int beta, int depth, boolean first_level) {
+
+				nodes++;
+				stats.nodes[iteration]++;
+
+				// Initialise best move and score
+				int[] best_move = new int[5]; // store [pos x, pos y, score]
+				best_move[0] = -1; // initialise best move to (-1,-1) - no move yet
+				best_move[1] = -1;
+				best_move[3] = 0;
+
+				// Transposition table
+				long key = board.hash ^ BitBoard.ZOBRIST_MAX[max_side];
+				long entry = tt.probe(key);
+				if(entry != 0){stats.tt_hits[iteration]++;}
+				if(entry != 0 && TransTable.depth(entry) >= depth){
+					int tt_score = TransTable.score(entry);
+					int bound = TransTable.bound(entry);
+					if(bound == TransTable.EXACT || (bound == TransTable.LOWER && tt_score >= beta) || (bound == TransTable.UPPER && tt_score <= alpha)){
+						stats.tt_cutoffs[iteration]++;
+						return TransTable.toMove(entry, size);
+					}
+				}
+
+				// Terminal state condition
+				boolean out_of_time = clock.expired(nodes);
+				long tEval = stats.timing ? System.nanoTime() : 0;
+				if(depth == 0 || out_of_time || board.isGameOver(max_side, min_side)) {
+					if(out_of_time){best_move[3] = 1; time_out = true;}
+					best_move[2] = board.getGlobalScore(max_side, min_side);
+					stats.leaf(iteration, tEval);
+					return best_move;
+				}
+				// Get possible moves from current state of the board, best first
+				long tMoves = stats.timing ? System.nanoTime() : 0;
+				int count = generateMoves(min_side, entry == 0 ? -1 : TransTable.move(entry));
+				stats.movegen(iteration, tEval, tMoves);
+
+				// Razoring and futility pruning - static score as if MinPlayer passed
+				int static_score = 0;
+				boolean futile = false;
+				if(depth <= 2 && (use_razoring || use_futility)){
+					static_score = board.getGlobalScore(max_side, max_side);
+					if(depth == 2 && use_razoring && static_score - razor_margin >= beta){depth = 1; stats.razorings[iteration]++;}
+					futile = depth == 1 && use_futility && static_score - futility_margin >= beta;
+				}
+				boolean classify = use_lmr || use_extensions || futile;
+				int beta_start = beta;
+
+				// Initialise score
+				best_move[2] = Integer.MAX_VALUE; //  MIN player worst-case
+
+				// Find best children
+				for (int i = 0; i < count; i++) {
+					int sq = nextMove(i, count);
+
+						int threat = classify ? threat(sq, min_side) : 0;
+						if(futile && threat == 0 && i > 0){ // quiet move - cannot bring the score down to beta
+							stats.futility_prunes[iteration]++;
+							if(static_score - futility_margin < best_move[2]){best_move[2] = static_score - futility_margin;}
+							continue;
+						}
+						int new_depth = depth - 1;
+						if(threat == 2 && use_extensions && ply < 2*iteration){new_depth++; stats.extensions[iteration]++;}
+						int reduction = reduction(i, depth, threat);
+
+						board.make(sq, min_side); // test children state
+						ply++;
+						int[] this_move;
+						if(reduction > 0){
+							stats.lmr_reductions[iteration]++;
+							this_move = MaxPlayerAB(board, alpha, beta, new_depth - reduction, first_level);
+							if(this_move[2] < beta && !time_out){stats.lmr_researches[iteration]++; this_move = MaxPlayerAB(board, alpha, beta, new_depth, first_level);}
+						}else{this_move = MaxPlayerAB(board, alpha, beta, new_depth, first_level);} // max - go down another level
+						ply--;
+						board.unmake(sq, min_side);
+
+						if (this_move[2] < best_move[2]){
+							best_move[0] = sq / size;
+							best_move[1] = sq % size;
+							best_move[2] = this_move[2];
+							best_move[3] = this_move[3];
+						}
+						if(this_move[2]<=alpha){ // alpha-beta pruning - check lower limit; if ilegal, return move (cutoff)
+							cutoff(sq, min_side, depth);
+							stats.cutoff(iteration, i);
+							if(!time_out){tt.store(key, depth, TransTable.UPPER, this_move[2], sq);}
+							return this_move;}
+						if(this_move[2]<beta){beta = this_move[2];} // alpha-beta pruning (update lower bound [alpha,beta])
+					}
+
+					if(!time_out){tt.store(key, depth, best_move[2] >= beta_start ? TransTable.LOWER : TransTable.EXACT, best_move[2], best_move[0]*size + best_move[1]);}
+					return best_move;
+				}
+
+		int[] forcedMove() {
+			/** Forced play of the first iteration of the PVS (same rule as the first level of MaxPlayerAB): a move making
+			 *  5 in a row, else a move blocking the opponent's 5 in a row, as [x_pos, y_pos, 20*MAX_SCORE, 0]. Null if none.
+			 **/
+			int count = generateMoves(max_side, -1);
+			int block = -1;
+			for (int i = 0; i < count; i++) {
+				int sq = move_buf[0][i];
+				board.make(sq, max_side);
+				boolean win = board.hasFive(max_side);
+				board.unmake(sq, max_side);
+				if (win) {block = sq; break;}
+				if (block < 0) {
+					board.make(sq, min_side);
+					if (board.hasFive(min_side)) {block = sq;}
+					board.unmake(sq, min_side);
+				}
+			}
+			if (block < 0) {return null;}
+			if (pv[0] == null) {pv[0] = new int[pv.length];}
+			pv[0][0] = block;
+			pv_length[0] = 1;
+			return new int[] {block / size, block % size, 20*MAX_SCORE, 0};
+		}
+
+		int[] aspiration(int depth, int previous, boolean use_window) {
+			/** Root of one PVS iteration. The window starts aspiration_window around the previous iteration's score and is
+			 *  widened (4 times wider each time, then unbounded) on the side the score falls out of it.
+			 *  Returns the move to play as [x_pos, y_pos, score, time_excceded?].
+			 **/
+			int delta = aspiration_window;
+			int alpha = -Integer.MAX_VALUE, beta = Integer.MAX_VALUE;
+			if (use_window && delta > 0 && Math.abs(previous) < MAX_SCORE) {alpha = previous - delta; beta = previous + delta;}
+			int score;
+			while (true) {
+				follow_pv = true;
+				score = pvs(max_side, alpha, beta, depth);
+				if (time_out) {break;}
+				if (score <= alpha && alpha != -Integer.MAX_VALUE) {alpha = delta >= MAX_SCORE ? -Integer.MAX_VALUE : alpha - 3*delta;}
+				else if (score >= beta && beta != Integer.MAX_VALUE) {beta = delta >= MAX_SCORE ? Integer.MAX_VALUE : beta + 3*delta;}
+				else {break;}
+				delta *= 4;
+				stats.aspiration_researches[iteration]++;
+			}
+			int move = pv_length[0] > 0 ? pv[0][0] : -1;
+			return new int[] {move < 0 ? -1 : move / size, move < 0 ? -1 : move % size, score, time_out ? 1 : 0};
+		}
+
+		int pvs(int side, int alpha, int beta, int depth) {
+			/** Negamax principal variation search - score of the position for side (to move), bounded by [alpha, beta].
+			 *  The first move is searched with the full window, the others with a null window [alpha, alpha+1] that only
+			 *  proves them worse, and are searched again with the full window when they are not. The best line found is
+			 *  left in pv[ply]. Scores stored in the transposition table stay from MaxPlayer's point of view, so the table
+			 *  is shared with MaxPlayerAB/MinPlayerAB.
+			 **/
+			nodes++;
+			stats.nodes[iteration]++;
+			pv_length[ply] = ply;
+			boolean pv_node = beta - alpha > 1;
+
+			// Transposition table - not at the root (it needs a move) nor in the principal variation (it needs the line)
+			long key = board.hash ^ BitBoard.ZOBRIST_MAX[max_side];
+			long entry = tt.probe(key);
+			if (entry != 0) {stats.tt_hits[iteration]++;}
+			if (entry != 0 && ply > 0 && !pv_node && TransTable.depth(entry) >= depth) {
+				int tt_score = TransTable.score(entry);
+				int bound = TransTable.bound(entry);
+				if (side != max_side) {tt_score = -tt_score; bound = bound == TransTable.EXACT ? bound : TransTable.LOWER + TransTable.UPPER - bound;}
+				if (bound == TransTable.EXACT || (bound == TransTable.LOWER && tt_score >= beta) || (bound == TransTable.UPPER && tt_score <= alpha)) {
+					stats.tt_cutoffs[iteration]++;
+					return tt_score;
+				}
+			}
+
+			// Terminal state condition
+			boolean out_of_time = clock.expired(nodes);
+			long tEval = stats.timing ? System.nanoTime() : 0;
+			if (depth == 0 || out_of_time || board.isGameOver(side, side)) {
+				if (out_of_time) {time_out = true;}
+				stats.leaf(iteration, tEval);
+				return board.getGlobalScore(side, side);
+			}
+
+			// Moves - the previous principal variation first while the moves made so far follow it
+			if (pv[ply] == null) {pv[ply] = new int[pv.length];}
+			pv_move = -1;
+			if (follow_pv) {
+				if (ply < last_pv.length) {pv_move = last_pv[ply];}
+				else {follow_pv = false;}
+			}
+			long tMoves = stats.timing ? System.nanoTime() : 0;
+			int count = generateMoves(side, entry == 0 ? -1 : TransTable.move(entry));
+			stats.movegen(iteration, tEval, tMoves);
+
+			// Razoring and futility pruning (not in the principal variation) - static score as if side passed
+			int static_score = 0;
+			boolean futile = false;
+			if (ply > 0 && !pv_node && depth <= 2 && (use_razoring || use_futility)) {
+				static_score = board.getGlobalScore(side, 1 - side);
+				if (depth == 2 && use_razoring && static_score + razor_margin <= alpha) {depth = 1; stats.razorings[iteration]++;}
+				futile = depth == 1 && use_futility && static_score + futility_margin <= alpha;
+			}
+			boolean classify = use_lmr || use_extensions || futile;
+			int alpha_start = alpha;
+			int best = -Integer.MAX_VALUE, best_sq = -1;
+
+			for (int i = 0; i < count; i++) {
+				int sq = nextMove(i, count);
+				if (sq != pv_move) {follow_pv = false;}
+
+				int threat = classify ? threat(sq, side) : 0;
+				if (futile && threat == 0 && i > 0) { // quiet move - cannot bring the score up to alpha
+					stats.futility_prunes[iteration]++;
+					best = Math.max(best, static_score + futility_margin); // bound of the moves skipped
+					continue;
+				}
+				int new_depth = depth - 1;
+				if (threat == 2 && use_extensions && ply < 2*iteration) {new_depth++; stats.extensions[iteration]++;}
+				int reduction = i == 0 ? 0 : reduction(i, depth, threat);
+
+				board.make(sq, side);
+				ply++;
+				int score;
+				if (i == 0) {score = -pvs(1 - side, -beta, -alpha, new_depth);}
+				else {
+					if (reduction > 0) {stats.lmr_reductions[iteration]++;}
+					score = -pvs(1 - side, -alpha - 1, -alpha, new_depth - reduction); // null window - is it better than alpha?
+					if (reduction > 0 && score > alpha && !time_out) { // late move - proven better at reduced depth, try full depth
+						stats.lmr_researches[iteration]++;
+						score = -pvs(1 - side, -alpha - 1, -alpha, new_depth);
+					}
+					if (score > alpha && score < beta && !time_out) { // yes - exact score needed
+						stats.pv_researches[iteration]++;
+						score = -pvs(1 - side, -beta, -alpha, new_depth);
+					}
+				}
+				ply--;
+				board.unmake(sq, side);
+				if (time_out) {return best;} // unfinished - the caller discards it
+
+				if (ply == 0 && (i == 0 || score > alpha) && score > root_best[2]) { // root move fully searched before the time ran out
+					root_best = new int[] {sq / size, sq % size, score, 0};
+				}
+				if (score > best) {
+					best = score;
+					best_sq = sq;
+					if (score > alpha) {
+						alpha = score;
+						int[] line = pv[ply], child = pv[ply + 1];
+						line[ply] = sq;
+						int length = pv_length[ply + 1];
+						for (int j = ply + 1; j < length; j++) {line[j] = child[j];}
+						pv_length[ply] = Math.max(length, ply + 1);
+						if (score >= beta) {
+							cutoff(sq, side, depth);
+							stats.cutoff(iteration, i);
+							store(key, side, depth, TransTable.LOWER, score, sq);
+							return score;
+						}
+					}
+				}
+			}
+			store(key, side, depth, best <= alpha_start ? TransTable.UPPER : TransTable.EXACT, best, best_sq);
+			return best;
+		}
+
+		void store(long key, int side, int depth, int bound, int score, int move) {
+			/** Stores a negamax score of side in the transposition table, from MaxPlayer's point of view.
+			 **/
+			if (side != max_side) {score = -score; bound = bound == TransTable.EXACT ? bound : TransTable.LOWER + TransTable.UPPER - bound;}
+			tt.store(key, depth, bound, score, move);
+		}
+	}
+
+	public static final class ThreatSearch {
+		/** Threat-space search: only expands the attacker's threats and the defender's answers to them, so it looks much
+		 *  deeper than the full-width search in the same time.
+		 *  VCF (victory by continuous fours): the attacker only plays fours (one move from 5 in a row), the defender must
+		 *  block the five square, and the attacker wins once a move makes two five squares (open four, four-four).
+		 *  VCT (victory by continuous threats): the attacker also plays threes that threaten an open four; the defender
+		 *  then tries every move that blocks one of the attacker's fours or makes a four of his own, and the threat only
+		 *  wins if every one of those answers still loses. Other defences (far from the attacker's lines) are not tried.
+		 *  The search works on the given bitboard with make/unmake and leaves it unchanged.
+		 **/
+		final BitBoard board;
+		final BitBoard.Geometry geometry;
+		final long node_limit;
+		long nodes;
+		TimeManager clock; // deadline of the search (null - only the node limit)
+		boolean aborted; // node limit or deadline reached - results found so far are still exact, failures are not
+
+		final int[] line; // winning line found (attacker's move at each level)
+		int ply; // current level of vcf/vct calls
+		final int[][] moves; // threat moves of each level
+		final int[][] gains; // five square made by each four (-1: two five squares - the attacker wins)
+		final int[][] defences; // defender's answers of each level (VCT)
+		final int[] seen; // positions already listed by the current scan (== mark)
+		final int[] index; // index of each listed position in the scan output
+		int mark;
+		final int[] five = new int[2]; // five squares
+		final long[] failed = new long[1 << 14]; // positions (and attacker) where the VCF failed ...
+		final int[] failed_depth = new int[1 << 14]; // ... with at most this many fours left
+		boolean lost; // set by refutations - the opponent wins by continuous fours whatever we play
+		int refutation_count; // moves returned by refutations
+
+		public ThreatSearch(BitBoard board, long node_limit) {
+			this.board = board;
+			this.geometry = board.geometry;
+			this.node_limit = node_limit;
+			int levels = vcf_depth + vct_depth + 2;
+			line = new int[levels];
+			moves = new int[levels][];
+			gains = new int[levels][];
+			defences = new int[levels][];
+			seen = new int[board.cells];
+			index = new int[board.cells];
+		}
+
+		public void reset() {
+			/** Clears the node count and the results of the last search, so one threat search serves many positions of its
+			 *  board (the failed positions table stays valid - it only depends on the position).
+			 **/
+			nodes = 0;
+			aborted = false;
+			lost = false;
+			refutation_count = 0;
+		}
+
+		public int findWin(int side) {
+			/** Move of side starting a forced win (VCF first, then VCT), -1 if none was found.
+			 **/
+			ply = 0;
+			if (vcf(side, vcf_depth) || vct(side, vct_depth)) {return line[0];}
+			return -1;
+		}
+
+		public boolean hasVcf(int side) {
+			/** Whether side (to move) wins by continuous fours.
+			 **/
+			ply = 0;
+			return vcf(side, vcf_depth);
+		}
+
+		public boolean[] refutations(int side) {
+			/** If the opponent of side would win by continuous fours were it his move: the moves of side after which he no
+			 *  longer does. Null if he has no such win, if none of the moves refutes it (lost is set) or if the node budget
+			 *  ran out - the search must then try every move.
+			 **/
+			int d = 1 - side;
+			if (!hasVcf(d)) {return null;}
+			int[] candidates = new int[board.cells];
+			int count = fives(d, five);
+			if (count > 0) { // he threatens 5 - only blocking it can help
+				count = Math.min(count, five.length);
+				System.arraycopy(five, 0, candidates, 0, count);
+			} else { // every filtered move and every position of his fours
+				count = board.getFiltMoves(candidates);
+				mark++;
+				for (int i = 0; i < count; i++) {seen[candidates[i]] = mark;}
+				count += fours(d, candidates, count, null);
+			}
+			boolean[] refutes = new boolean[board.cells];
+			refutation_count = 0;
+			for (int i = 0; i < count; i++) {
+				board.make(candidates[i], side);
+				if (!hasVcf(d)) {refutes[candidates[i]] = true; refutation_count++;}
+				board.unmake(candidates[i], side);
+			}
+			if (aborted) {return null;}
+			lost = refutation_count == 0;
+			return lost ? null : refutes;
+		}
+
+		boolean vcf(int a, int depth) {
+			/** Attacker a to move: true if a wins by continuous fours (at most depth of them) - line[ply] is the move.
+			 **/
+			if (++nodes > node_limit || (clock != null && clock.expired(nodes))) {aborted = true; return false;}
+			int d = 1 - a;
+			if (fives(a, five) > 0) {line[ply] = five[0]; return true;} // 5 in a row now
+			int defender_fives = fives(d, five);
+			if (defender_fives > 1 || depth == 0) {return false;} // cannot block both
+			long key = board.hash ^ BitBoard.ZOBRIST_MAX[a];
+			int slot = (int)key & (failed.length - 1);
+			if (failed[slot] == key && failed_depth[slot] >= depth) {return false;}
+
+			if (moves[ply] == null) {moves[ply] = new int[board.cells]; gains[ply] = new int[board.cells]; defences[ply] = new int[board.cells];}
+			int[] fours = moves[ply], gain = gains[ply];
+			int count = fours(a, fours, gain);
+			int forced = defender_fives == 1 ? five[0] : -1; // the defender threatens 5 - only blocking it is allowed
+			for (int i = 0; i < count; i++) {
+				int sq = fours[i];
+				if (forced >= 0 && sq != forced) {continue;}
+				boolean win;
+				board.make(sq, a);
+				if (gain[i] < 0) {win = true;} // two five squares - the defender can only block one
+				else {
+					board.make(gain[i], d); // forced block
+					ply++;
+					win = !board.hasFive(d) && vcf(a, depth - 1);
+					ply--;
+					board.unmake(gain[i], d);
+				}
+				board.unmake(sq, a);
+				if (win) {line[ply] = sq; return true;}
+				if (aborted) {return false;}
+			}
+			failed[slot] = key;
+			failed_depth[slot] = depth;
+			return false;
+		}
+
+		boolean vct(int a, int depth) {
+			/** Attacker a to move: true if a wins by continuous fours and threes (at most depth threats before the VCF).
+			 **/
+			if (vcf(a, vcf_depth)) {return true;}
+			if (depth == 0 || aborted) {return false;}
+			int d = 1 - a;
+			if (fives(d, five) > 0) {return false;} // must block a four without a four of our own - the initiative is lost
+
+			if (moves[ply] == null) {moves[ply] = new int[board.cells]; gains[ply] = new int[board.cells]; defences[ply] = new int[board.cells];}
+			int[] threats = moves[ply], gain = gains[ply], answers = defences[ply];
+			int count = threes(a, threats);
+			for (int i = 0; i < count; i++) {
+				int sq = threats[i];
+				board.make(sq, a);
+				boolean win;
+				int attacker_fives = fives(a, five);
+				if (attacker_fives > 1) {win = true;} // the VCF would have found it - kept for completeness
+				else if (attacker_fives == 1) { // four - the block is forced
+					int block = five[0];
+					board.make(block, d);
+					ply++;
+					win = !board.hasFive(d) && vct(a, depth - 1);
+					ply--;
+					board.unmake(block, d);
+				} else {
+					// three - a threat only if it makes an open four possible; the answers are the positions blocking one of
+					// the attacker's fours and the defender's own fours
+					int answer_count = fours(a, answers, gain);
+					win = false;
+					for (int j = 0; j < answer_count && !win; j++) {win = gain[j] < 0;}
+					if (win) {answer_count += fours(d, answers, answer_count, null);}
+					for (int j = 0; j < answer_count && win; j++) {
+						board.make(answers[j], d);
+						ply++;
+						win = !board.hasFive(d) && vct(a, depth - 1);
+						ply--;
+						board.unmake(answers[j], d);
+					}
+				}
+				board.unmake(sq, a);
+				if (win) {line[ply] = sq; return true;}
+				if (aborted) {return false;}
+			}
+			return false;
+		}
+
+		int fives(int side, int[] out) {
+			/** Five squares of side (positions completing 5 in a row): writes up to out.length of them, returns how many.
+			 **/
+			mark++;
+			int count = 0;
+			for (int line = 0; line < geometry.lines; line++) {
+				int own = board.line_bits[side][line];
+				if (Integer.bitCount(own) < 4) {continue;}
+				int opp = board.line_bits[1 - side][line];
+				for (int start = 0; start + 5 <= geometry.line_len[line]; start++) {
+					int window = 31 << start;
+					if ((opp & window) != 0 || Integer.bitCount(own & window) != 4) {continue;}
+					int sq = geometry.line_sqs[line][Integer.numberOfTrailingZeros(window & ~own)];
+					if (seen[sq] != mark) {
+						seen[sq] = mark;
+						if (count < out.length) {out[count] = sq;}
+						count++;
+					}
+				}
+			}
+			return count;
+		}
+
+		int fours(int side, int[] out, int[] gain) {
+			return fours(side, out, 0, gain);
+		}
+
+		int fours(int side, int[] out, int first, int[] gain) {
+			/** Moves of side making a four, written in out from first (skipping the positions already there) with the five
+			 *  square each one makes in gain (-1 if it makes two). Returns how many were added.
+			 **/
+			if (first == 0) {mark++;}
+			int count = first;
+			for (int line = 0; line < geometry.lines; line++) {
+				int own = board.line_bits[side][line];
+				if (Integer.bitCount(own) < 3) {continue;}
+				int opp = board.line_bits[1 - side][line];
+				for (int start = 0; start + 5 <= geometry.line_len[line]; start++) {
+					int window = 31 << start;
+					if ((opp & window) != 0 || Integer.bitCount(own & window) != 3) {continue;}
+					int empty = window & ~own;
+					int first_sq = geometry.line_sqs[line][Integer.numberOfTrailingZeros(empty)];
+					int second_sq = geometry.line_sqs[line][31 - Integer.numberOfLeadingZeros(empty)];
+					count = addFour(out, count, gain, first_sq, second_sq);
+					count = addFour(out, count, gain, second_sq, first_sq);
+				}
+			}
+			return count - first;
+		}
+
+		int addFour(int[] out, int count, int[] gain, int sq, int five_sq) {
+			if (seen[sq] != mark) {
+				seen[sq] = mark;
+				index[sq] = count;
+				out[count] = sq;
+				if (gain != null) {gain[count] = five_sq;}
+				return count + 1;
+			}
+			if (gain != null && gain[index[sq]] != five_sq) {gain[index[sq]] = -1;} // second five square
+			return count;
+		}
+
+		int threes(int side, int[] out) {
+			/** Candidate moves of side making a three or a four (2 or 3 pieces and no opponent's piece in a window of 5).
+			 *  Returns how many.
+			 **/
+			mark++;
+			int count = 0;
+			for (int line = 0; line < geometry.lines; line++) {
+				int own = board.line_bits[side][line];
+				if (Integer.bitCount(own) < 2) {continue;}
+				int opp = board.line_bits[1 - side][line];
+				for (int start = 0; start + 5 <= geometry.line_len[line]; start++) {
+					int window = 31 << start;
+					int pieces = Integer.bitCount(own & window);
+					if ((opp & window) != 0 || pieces < 2 || pieces > 3) {continue;}
+					for (int empty = window & ~own; empty != 0; empty &= empty - 1) {
+						int sq = geometry.line_sqs[line][Integer.numberOfTrailingZeros(empty)];
+						if (seen[sq] != mark) {seen[sq] = mark; out[count++] = sq;}
+					}
+				}
+			}
+			return count;
+		}
+	}
+
+	public static final class EndgameSolver {
+		/** Exact win/draw/loss search for positions with few empty positions left, where the evaluation no longer means
+		 *  much: every empty position is a move (not only the ones next to a piece) and the result is proven.
+		 *  It keeps its own state instead of doing BitBoard.make/unmake, which rescore 4 lines per move: the pieces of
+		 *  each line as a bit mask, so a move only sets 4 bits and 5 in a row is a few shifts on them.
+		 *  A side that can make 5 wins at once; a side facing two 5 threats it cannot make itself loses at once; a side
+		 *  facing one must block it. Results go in a compact transposition table of its own, one long per entry, always
+		 *  replaced: [value+1: bits 0-1][bound: 2-3][move+1: 4-12][key: 13-63]
+		 *  The table is kept between the moves of the game (results are exact, whatever the root).
+		 **/
+		static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+		final BitBoard.Geometry geometry;
+		final int size;
+		final int[][] bits; // pieces of each side in each line
+		long hash;
+		final long[] table;
+		final int mask;
+		final int[][] moves; // empty positions at each ply
+		long nodes;
+		boolean aborted; // clock expired - the result is not valid
+		TimeManager clock;
+		int best_move; // move of the root
+
+		public EndgameSolver(int size, int table_mb) {
+			this.size = size;
+			this.geometry = BitBoard.Geometry.of(size);
+			bits = new int[2][geometry.lines];
+			int entries = Integer.highestOneBit(Math.max(1, (int)Math.min(1L << 28, ((long)table_mb << 20) / 8)));
+			table = new long[entries];
+			mask = entries - 1;
+			moves = new int[size*size + 1][];
+		}
+
+		public int solve(BitBoard board, int side, TimeManager clock) {
+			/** Result of the position for side (to move): 1 win, 0 draw, -1 loss, with the move in best_move. Returns -2 if
+			 *  the clock expires first. The board must not have 5 in a row.
+			 **/
+			this.clock = clock;
+			nodes = 0;
+			aborted = false;
+			best_move = -1;
+			hash = 0;
+			for (int line = 0; line < geometry.lines; line++) {
+				bits[0][line] = board.line_bits[0][line];
+				bits[1][line] = board.line_bits[1][line];
+			}
+			int count = 0;
+			if (moves[0] == null) {moves[0] = new int[size*size];}
+			for (int sq = 0; sq < board.cells; sq++) {
+				if (board.isEmpty(sq)) {moves[0][count++] = sq;}
+				else {hash ^= geometry.zobrist[(board.stones[0][sq >>> 6] & (1L << sq)) != 0 ? 0 : 1][sq];}
+			}
+			int value = solve(side, -1, 1, 0, count);
+			return aborted ? -2 : value;
+		}
+
+		int solve(int side, int alpha, int beta, int ply, int count) {
+			/** Negamax alpha-beta on win/draw/loss for side to move, with the count empty positions in moves[ply].
+			 **/
+			nodes++;
+			if (clock.expired(nodes)) {aborted = true; return 0;}
+			if (count == 0) {return 0;} // full board - draw
+			int[] empty = moves[ply];
+
+			// 5 in a row now wins; two 5 threats of the opponent lose; one must be blocked
+			int block = -1;
+			for (int i = 0; i < count; i++) {
+				if (five(side, empty[i])) {if (ply == 0) {best_move = empty[i];} return 1;}
+			}
+			for (int i = 0; i < count; i++) {
+				if (five(1 - side, empty[i])) {
+					if (block >= 0) {if (ply == 0) {best_move = empty[block];} return -1;}
+					block = i;
+				}
+			}
+
+			// a side without a 5 positions window free of the opponent's pieces can no longer win
+			if (!canWin(side)) {beta = Math.min(beta, 0);}
+			if (!canWin(1 - side)) {alpha = Math.max(alpha, 0);}
+			if (alpha >= beta) {if (ply == 0) {best_move = empty[block >= 0 ? block : 0];} return alpha;}
+
+			long key = hash ^ BitBoard.ZOBRIST_MAX[side];
+			int slot = (int)key & mask;
+			long entry = table[slot];
+			int hash_move = -1;
+			if (entry != 0 && (entry >>> 13) == (key >>> 13)) {
+				int value = (int)(entry & 3) - 1, bound = (int)(entry >>> 2) & 3;
+				hash_move = ((int)(entry >>> 4) & 0x1FF) - 1;
+				if (ply > 0 && (bound == EXACT || (bound == LOWER && value >= beta) || (bound == UPPER && value <= alpha))) {return value;}
+			}
+
+			if (moves[ply + 1] == null) {moves[ply + 1] = new int[empty.length];}
+			int alpha_start = alpha;
+			int best = -2, best_sq = -1;
+			int first = block >= 0 ? block : -1;
+			if (first < 0 && hash_move >= 0) {
+				for (int i = 0; i < count; i++) {if (empty[i] == hash_move) {first = i; break;}}
+			}
+			for (int n = -1; n < count; n++) {
+				int i = n < 0 ? first : n; // the forced or hash move first
+				if (i < 0 || (n >= 0 && i == first)) {continue;}
+				if (block >= 0 && i != block) {break;}
+				int sq = empty[i];
+				int[] child = moves[ply + 1];
+				for (int j = 0, k = 0; j < count; j++) {if (j != i) {child[k++] = empty[j];}}
+
+				place(sq, side);
+				int value = -solve(1 - side, -beta, -alpha, ply + 1, count - 1);
+				place(sq, side);
+				if (aborted) {return 0;}
+
+				if (value > best) {
+					best = value;
+					best_sq = sq;
+					if (value > alpha) {alpha = value;}
+					if (alpha >= beta) {break;}
+				}
+			}
+			if (ply == 0) {best_move = best_sq;}
+			int bound = best <= alpha_start ? UPPER : best >= beta ? LOWER : EXACT;
+			table[slot] = (key >>> 13 << 13) | ((long)(best_sq + 1) << 4) | (bound << 2) | (best + 1);
+			return best;
+		}
+
+		void place(int sq, int side) {
+			/** Adds (or removes, called again) the piece of side on sq.
+			 **/
+			int[][] sq_line = geometry.sq_line, sq_pos = geometry.sq_pos;
+			int[] lines = bits[side];
+			for (int dir = 0; dir < 4; dir++) {lines[sq_line[dir][sq]] ^= 1 << sq_pos[dir][sq];}
+			hash ^= geometry.zobrist[side][sq];
+		}
+
+		boolean canWin(int side) {
+			/** Whether some window of 5 positions of a line has no piece of the opponent of side.
+			 **/
+			int[] opponent = bits[1 - side];
+			for (int line = 0; line < geometry.lines; line++) {
+				int free = ~opponent[line] & ((1 << geometry.line_len[line]) - 1);
+				if ((free & (free >>> 1) & (free >>> 2) & (free >>> 3) & (free >>> 4)) != 0) {return true;}
+			}
+			return false;
+		}
+
+		boolean five(int side, int sq) {
+			/** Whether a piece of side on sq (empty) makes 5 in a row.
+			 **/
+			int[] lines = bits[side];
+			for (int dir = 0; dir < 4; dir++) {
+				int m = lines[geometry.sq_line[dir][sq]] | (1 << geometry.sq_pos[dir][sq]);
+				if ((m & (m >>> 1) & (m >>> 2) & (m >>> 3) & (m >>> 4)) != 0) {return true;}
+			}
+			return false;
+		}
+	}
+
+	public static final class TimeManager {
+		/** Deadline of one move, shared by all the search threads.
+		 *  The nodes poll System.nanoTime only once every TIME_CHECK_NODES nodes and otherwise just read the volatile flag,
+		 *  which is also how the main thread stops the helpers.
+		 **/
+		static final int TIME_CHECK_NODES = 256; // power of 2
+		final long tStart; // System.nanoTime() at the start of the move
+		final long deadline; // tStart + hard limit
+		volatile boolean expired;
+
+		public TimeManager(long tStart, double seconds) {
+			this.tStart = tStart;
+			this.deadline = tStart + (long)(seconds * 1e9);
+		}
+
+		public boolean expired(long nodes) {
+			if (!expired && (nodes & (TIME_CHECK_NODES - 1)) == 0 && System.nanoTime() >= deadline) {expired = true;}
+			return expired;
+		}
+
+		public void stop() {
+			expired = true;
+		}
+
+		public long elapsedMs() {
+			return (System.nanoTime() - tStart) / 1000000;
+		}
+
+		public boolean nextDepthFits(long iteration_ns, long nodes, long previous_nodes) {
+			/** Predicts the time of the next depth as the time of the last one times the branching factor seen so far
+			 *  (nodes of the last depth / nodes of the depth before) and checks it ends before the deadline.
+			 **/
+			double branching = previous_nodes > 0 ? (double)nodes / previous_nodes : 4;
+			branching = Math.max(1.5, Math.min(branching, 16));
+			return System.nanoTime() + (long)(iteration_ns * branching) < deadline;
+		}
+	}
+
+	public static final class SearchStats {
+		/** Statistics of one chooseMove call, with counters per depth of the iterative deepening (index = depth).
+		 *  Counting only adds to arrays; the evaluation/move generation times are measured only with stats_timing.
+		 **/
+		public final long[] nodes;       // positions visited
+		public final long[] leaves;      // positions evaluated (depth cut-off, terminal or time out)
+		public final long[] cutoffs;     // alpha-beta cutoffs
+		public final long[] first_cutoffs; // cutoffs by the first move searched (move ordering quality)
+		public final long[] tt_hits;     // positions found in the transposition table
+		public final long[] tt_cutoffs;  // ... with a score good enough to return at once
+		public final long[] eval_ns;     // time in isGameOver/getGlobalScore (stats_timing)
+		public final long[] movegen_ns;  // time generating and ordering moves (stats_timing)
+		public final long[] iteration_ms; // time since the start of the move when the iteration ended
+		public final int[] iteration_score;
+		public final int[] iteration_move; // row*size + col (-1: no move)
+		public final boolean[] iteration_discarded; // time exceeded - result not used
+		public final long[] pv_researches; // PVS null-window searches searched again with the full window
+		public final long[] aspiration_researches; // PVS root searches repeated with a wider window
+		public final long[] lmr_reductions; // late moves searched shallower first
+		public final long[] lmr_researches; // ... searched again to full depth
+		public final long[] futility_prunes; // quiet moves skipped 1 ply from the leaves
+		public final long[] razorings; // nodes 2 plies from the leaves searched 1 ply deep
+		public final long[] extensions; // answers to a four searched 1 ply deeper
+		public final boolean timing = stats_timing;
+
+		public int depth_reached; // deepest iteration completed in time
+		public boolean partial_move; // move taken from the unfinished last iteration
+		public boolean predicted_stop; // next depth not started because it was not expected to finish in time
+		public boolean ponder_hit; // move found in the transposition table filled while pondering, no search
+		public boolean book_hit; // move found in the opening book, no search
+		public boolean cache_hit; // move found in the search cache (cache_file) as deep as the search would go, no search
+		public int cache_depth = -1; // depth of the search cache result of the position (-1: none)
+		public int endgame_result = -2; // endgame solver: 1 win, 0 draw, -1 loss (-2: not run or out of time)
+		public long endgame_nodes; // nodes of the endgame solver
+		public long endgame_ms; // time of the endgame solver
+		public boolean threat_win; // move starting a forced win found by the threat search, no search
+		public boolean threat_loss; // the opponent has a forced win that no move refutes
+		public int threat_refutations = -1; // root moves kept because they refute the opponent's forced win (-1: not restricted)
+		public long threat_nodes; // nodes of the threat search
+		public long threat_ms; // time of the threat search
+		public int first_depth; // first iteration searched
+		public int last_depth; // last iteration started
+		public int row = -1, col = -1, score; // move played
+		public long time_ms; // time spent in chooseMove
+		public long helper_nodes; // positions visited by the helper threads
+		public int threads;
+		public String algorithm = search_algorithm;
+		public boolean lmr = Player.lmr, futility = Player.futility, razoring = Player.razoring, check_extensions = Player.check_extensions;
+		public int[] pv = new int[0]; // principal variation of the last iteration completed, row*size + col (PVS only)
+
+		public SearchStats(int max_depth) {
+			/** Counters for iterations up to max_depth.
+			 **/
+			nodes = new long[max_depth + 1];
+			leaves = new long[max_depth + 1];
+			cutoffs = new long[max_depth + 1];
+			first_cutoffs = new long[max_depth + 1];
+			tt_hits = new long[max_depth + 1];
+			tt_cutoffs = new long[max_depth + 1];
+			eval_ns = new long[max_depth + 1];
+			movegen_ns = new long[max_depth + 1];
+			iteration_ms = new long[max_depth + 1];
+			iteration_score = new int[max_depth + 1];
+			iteration_move = new int[max_depth + 1];
+			iteration_discarded = new boolean[max_depth + 1];
+			pv_researches = new long[max_depth + 1];
+			aspiration_researches = new long[max_depth + 1];
+			lmr_reductions = new long[max_depth + 1];
+			lmr_researches = new long[max_depth + 1];
+			futility_prunes = new long[max_depth + 1];
+			razorings = new long[max_depth + 1];
+			extensions = new long[max_depth + 1];
+			first_depth = max_depth;
+		}
+
+		void selective(Search search) {
+			/** Records the algorithm and the selective search switches of search.
+			 **/
+			algorithm = search.use_pvs ? "pvs" : "minimax";
+			lmr = search.use_lmr;
+			futility = search.use_futility;
+			razoring = search.use_razoring;
+			check_extensions = search.use_extensions;
+		}
+
+		void leaf(int depth, long tEval) {
+			leaves[depth]++;
+			if (timing) {eval_ns[depth] += System.nanoTime() - tEval;}
+		}
+
+		void movegen(int depth, long tEval, long tMoves) {
+			if (timing) {
+				long now = System.nanoTime();
+				eval_ns[depth] += tMoves - tEval; // terminal check of an interior node
+				movegen_ns[depth] += now - tMoves;
+			}
+		}
+
+		void cutoff(int depth, int move_index) {
+			cutoffs[depth]++;
+			if (move_index == 0) {first_cutoffs[depth]++;}
+		}
+
+		void iteration(int depth, int[] this_move, int size, long elapsed_ms) {
+			first_depth = Math.min(first_depth, depth);
+			last_depth = depth;
+			iteration_ms[depth] = elapsed_ms;
+			iteration_score[depth] = this_move[2];
+			iteration_move[depth] = this_move[0] < 0 ? -1 : this_move[0]*size + this_move[1];
+			iteration_discarded[depth] = this_move[3] != 0;
+			if (this_move[3] == 0) {depth_reached = depth;}
+		}
+
+		void finish(int[] final_move, long time_ms, int threads) {
+			this.row = final_move[0];
+			this.col = final_move[1];
+			this.score = final_move[2];
+			this.time_ms = time_ms;
+			this.threads = threads;
+		}
+
+		public long totalNodes() {
+			long total = helper_nodes;
+			for (long n : nodes) {total += n;}
+			return total;
+		}
+
+		public String toJson() {
+			/** One line of JSON: move summary plus one object per iteration searched.
+			 **/
+			StringBuilder json = new StringBuilder();
+			json.append("{\"row\":").append(row).append(",\"col\":").append(col).append(",\"score\":").append(score)
+				.append(",\"time_ms\":").append(time_ms).append(",\"depth_reached\":").append(depth_reached)
+				.append(",\"last_discarded\":").append(last_depth > 0 && iteration_discarded[last_depth])
+				.append(",\"partial_move\":").append(partial_move).append(",\"predicted_stop\":").append(predicted_stop)
+				.append(",\"ponder_hit\":").append(ponder_hit).append(",\"book_hit\":").append(book_hit)
+				.append(",\"cache_hit\":").append(cache_hit).append(",\"cache_depth\":").append(cache_depth)
+				.append(",\"endgame_result\":").append(endgame_result).append(",\"endgame_nodes\":").append(endgame_nodes)
+				.append(",\"endgame_ms\":").append(endgame_ms)
+				.append(",\"threat_win\":").append(threat_win).append(",\"threat_loss\":").append(threat_loss)
+				.append(",\"threat_refutations\":").append(threat_refutations).append(",\"threat_nodes\":").append(threat_nodes)
+				.append(",\"threat_ms\":").append(threat_ms)
+				.append(",\"nodes\":").append(totalNodes()).append(",\"helper_nodes\":").append(helper_nodes)
+				.append(",\"threads\":").append(threads).append(",\"algorithm\":\"").append(algorithm)
+				.append("\",\"lmr\":").append(lmr).append(",\"futility\":").append(futility).append(",\"razoring\":").append(razoring)
+				.append(",\"check_extensions\":").append(check_extensions).append(",\"pv\":[");
+			for (int i = 0; i < pv.length; i++) {json.append(i > 0 ? "," : "").append(pv[i]);}
+			json.append("],\"depths\":[");
+			for (int depth = first_depth; depth <= last_depth; depth++) {
+				if (depth > first_depth) {json.append(',');}
+				json.append("{\"depth\":").append(depth).append(",\"nodes\":").append(nodes[depth])
+					.append(",\"leaves\":").append(leaves[depth]).append(",\"cutoffs\":").append(cutoffs[depth])
+					.append(",\"first_cutoff_rate\":").append(cutoffs[depth] == 0 ? 0 : Math.round(1000.0*first_cutoffs[depth]/cutoffs[depth])/1000.0)
+					.append(",\"tt_hits\":").append(tt_hits[depth]).append(",\"tt_cutoffs\":").append(tt_cutoffs[depth])
+					.append(",\"ms\":").append(iteration_ms[depth]).append(",\"score\":").append(iteration_score[depth])
+					.append(",\"move\":").append(iteration_move[depth]).append(",\"discarded\":").append(iteration_discarded[depth])
+					.append(",\"pv_researches\":").append(pv_researches[depth]).append(",\"aspiration_researches\":").append(aspiration_researches[depth])
+					.append(",\"lmr_reductions\":").append(lmr_reductions[depth]).append(",\"lmr_researches\":").append(lmr_researches[depth])
+					.append(",\"futility_prunes\":").append(futility_prunes[depth]).append(",\"razorings\":").append(razorings[depth])
+					.append(",\"extensions\":").append(extensions[depth]);
+				if (timing) {json.append(",\"eval_ns\":").append(eval_ns[depth]).append(",\"movegen_ns\":").append(movegen_ns[depth]);}
+				json.append('}');
+			}
+			return json.append("]}").toString();
+		}
+
+		void log(String file) {
+			/** Appends toJson() as one line of file (errors are ignored - logging must never cost the game).
+			 **/
+			try (java.io.Writer out = new java.io.FileWriter(file, true)) {
+				out.write(toJson());
+				out.write('\n');
+			} catch (java.io.IOException e) {}
+		}
+	}
+
 	public static int getGlobalScore(Color[][] board, Color turn) {
 		/** Get gobal score by subtracting min eval to the max eval.
 		 **/
+		return getGlobalScore(board, MaxPlayer, MinPlayer, turn);
+	}
+
+	public static int getGlobalScore(Color[][] board, Color max, Color min, Color turn) {
+		/** Same as getGlobalScore(Color[][], Color) relative to max instead of MaxPlayer.
+		 **/
 
-		int score_max = getScore(board, MaxPlayer, turn); // relative to max player
-		int score_min = getScore(board, MinPlayer, turn);
+		int score_max = getScore(board, max, turn); // relative to max player
+		int score_min = getScore(board, min, turn);
 
 			if (score_max==MAX_SCORE*20) { // signal a win for max
 				return score_max;
@@ -217,15 +1560,16 @@ class Player extends GomokuPlayer {
 
 		 // Vertical
 			List<Integer> V = new ArrayList<Integer>();
-			int[] set_extend_v = new int[8]; // save for each column
+			int[] set_extend_v = new int[board.length]; // save for each column
 
 		 // Diagonal L->R
 			List<Integer> diagLR = new ArrayList<Integer>();
-			int[][] set_extend_diagLR = new int[15][2]; // 15-max number of diag that you can have in 8x8; 2 - xy coordinates
+			int[][] set_extend_diagLR = new int[2*board.length - 1][2]; // 2n-1 - number of diag that you can have in nxn; 2 - xy coordinates
+			int diag = board.length - 1; // offset of the LR diagonals (row-col ranges from -(n-1) to n-1)
 
 		 // Diagonal R->L
 			List<Integer> diagRL = new ArrayList<Integer>();
-			int[][] set_extend_diagRL = new int[15][2];
+			int[][] set_extend_diagRL = new int[2*board.length - 1][2];
 
 			int score_sum = 0; // cumulative score
 			int score; // partial score
@@ -257,14 +1601,14 @@ class Player extends GomokuPlayer {
 								} // vertical
 
 								// DIAGONAL (L-R) row-col is the same for every element of LR diagonal
-			          if(!diagLR.contains(row-col+7) || (diagLR.contains(row-col+7) && row>set_extend_diagLR[row-col+7][0] && col>set_extend_diagLR[row-col+7][1]) )
+			          if(!diagLR.contains(row-col+diag) || (diagLR.contains(row-col+diag) && row>set_extend_diagLR[row-col+diag][0] && col>set_extend_diagLR[row-col+diag][1]) )
 			          {
 			            Consecutive = CountPieces(board,row,col,1,1,piece);
 			            score = EvaluateDiagonalLR(board, row, col, Consecutive, piece, turn);
 									if(score==MAX_SCORE*20){return score;} else{score_sum+=score;}
-			            diagLR.add(row-col+7); // +7 - so i get index from 0-14
-			            set_extend_diagLR[row-col+7][0] = row+Consecutive;
-			            set_extend_diagLR[row-col+7][1] = col+Consecutive;
+			            diagLR.add(row-col+diag); // +diag - so i get index from 0-(2n-2)
+			            set_extend_diagLR[row-col+diag][0] = row+Consecutive;
+			            set_extend_diagLR[row-col+diag][1] = col+Consecutive;
 			          } // diagLR
 
 								// DIAGONAL (R-L) row+col is the same for every element of RL diagonal
@@ -294,7 +1638,7 @@ class Player extends GomokuPlayer {
  */
 	  int count = 0;
 	  for (int i = 0; i < 5; i++) {
-	    if((row + i * rowd)>=0 && (row + i * rowd)<8 && (col + i * cold)>=0 && (col + i * cold)<8){ // position is within grid
+	    if((row + i * rowd)>=0 && (row + i * rowd)<board.length && (col + i * cold)>=0 && (col + i * cold)<board.length){ // position is within grid
 	      if (board[row + i * rowd][col + i * cold] == player) count++;
 	      else break;
 	    }
@@ -307,7 +1651,7 @@ class Player extends GomokuPlayer {
  * Checks if there is an open end in the position [row+rowd, col+cold]
  */
 	  int count = 0;
-	    if((row + rowd)>=0 && (row + rowd)<8 && (col + cold)>=0 && (col + cold)<8){ // position is within grid
+	    if((row + rowd)>=0 && (row + rowd)<board.length && (col + cold)>=0 && (col + cold)<board.length){ // position is within grid
 	        if (board[row + rowd][col + cold] == null) count++;
 	  }
 	  return count;
@@ -317,7 +1661,7 @@ class Player extends GomokuPlayer {
 		/**
 		* Checks if there is a piece in the position [row+rowd, col+cold]
  */
-			if((row + rowd)>=0 && (row + rowd)<8 && (col + cold)>=0 && (col + cold)<8){ // position is within grid
+			if((row + rowd)>=0 && (row + rowd)<board.length && (col + cold)>=0 && (col + cold)<board.length){ // position is within grid
 				if (board[row +  rowd][col + cold] != null){return 1;};
 			}
 		return 0;
@@ -375,8 +1719,9 @@ class Player extends GomokuPlayer {
 			}
 		}
 
-		if(availableMoves.size()==0 && board[3][3]==null){ // board is empty (first move) - also taking into account draw scenario
-			availableMoves.add(new Position(3, 3)); // position it on the centre of the board
+		int centre = (board.length - 1)/2;
+		if(availableMoves.size()==0 && board[centre][centre]==null){ // board is empty (first move) - also taking into account draw scenario
+			availableMoves.add(new Position(centre, centre)); // position it on the centre of the board
 		}
 
 // weighted version
@@ -409,104 +1754,1013 @@ class Player extends GomokuPlayer {
 	  // horizontal
 	  int openEnds = CountOpen(board,row,col,0,-1) + CountOpen(board,row,col+Consecutive-1,0,1); // count number of open ends on both sides
 
-	  switch(Consecutive){ // set length
-	    case 5: return MAX_SCORE*20;
-	    case 4: switch(openEnds){ // number of open-ends
-	              case 2: if(turn.equals(player)){return MAX_SCORE;} else{return 500000;}
-	              case 1: if(turn.equals(player)){return MAX_SCORE;} else{return 50;}
-	            } break;
-	    case 3: switch(openEnds){
-	              case 2: if(turn.equals(player)){return 10000;} else{return 50;}
-	              case 1: if(turn.equals(player)){return 10;} else{return 7;}
-	            } break;
-	    case 2: switch(openEnds){
-	              case 2: return 7;
-	              case 1: return 3;
-	            } break;
-	    case 1: switch(openEnds){
-	              case 2: return 2;
-	              case 1: return 1;
-	            } break; // switch openEnds
-	          } // switch Consecutive
-	          return 0;
+	  return EvaluateSet(Consecutive, openEnds, turn.equals(player)); // score of the set (same rules in every direction)
 	}
 
 	public static int EvaluateVertical(Color[][] board, int row, int col, int Consecutive, Color player, Color turn) {
 		// Vertical
 		int openEnds = CountOpen(board,row,col,-1,0) + CountOpen(board,row+Consecutive-1,col,1,0);
 
-		switch(Consecutive){
-			case 5: return MAX_SCORE*20;
-			case 4: switch(openEnds){
-								case 2: if(turn.equals(player)){return MAX_SCORE;} else{return 500000;}
-								case 1: if(turn.equals(player)){return MAX_SCORE;} else{return 50;}
-							} break;
-			case 3: switch(openEnds){
-								case 2: if(turn.equals(player)){return 10000;} else{return 50;}
-								case 1: if(turn.equals(player)){return 10;} else{return 7;}
-							} break;
-			case 2: switch(openEnds){
-								case 2: return 7;
-								case 1: return 3;
-							} break;
-			case 1: switch(openEnds){
-								case 2: return 2;
-								case 1: return 1;
-							} break; // switch openEnds
-						} // switch Consecutive
-						return 0;
+		return EvaluateSet(Consecutive, openEnds, turn.equals(player)); // score of the set (same rules in every direction)
 	}
 
 	public static int EvaluateDiagonalLR(Color[][] board, int row, int col, int Consecutive, Color player, Color turn) {
 		// Diagonal LR
 		int openEnds = CountOpen(board,row,col,-1,-1) + CountOpen(board,row+Consecutive-1,col+Consecutive-1,1,1);
 
-		switch(Consecutive){
-			case 5: return MAX_SCORE*20;
-			case 4: switch(openEnds){
-								case 2: if(turn.equals(player)){return MAX_SCORE;} else{return 500000;}
-								case 1: if(turn.equals(player)){return MAX_SCORE;} else{return 50;}
-							} break;
-			case 3: switch(openEnds){
-								case 2: if(turn.equals(player)){return 10000;} else{return 50;}
-								case 1: if(turn.equals(player)){return 10;} else{return 7;}
-							} break;
-			case 2: switch(openEnds){
-								case 2: return 7;
-								case 1: return 3;
-							} break;
-			case 1: switch(openEnds){
-								case 2: return 2;
-								case 1: return 1;
-							} break; // switch openEnds
-						} // switch Consecutive
-						return 0;
+		return EvaluateSet(Consecutive, openEnds, turn.equals(player)); // score of the set (same rules in every direction)
 	}
 
 	public static int EvaluateDiagonalRL(Color[][] board, int row, int col, int Consecutive, Color player, Color turn) {
 		// Diagonal RL
 		int openEnds = CountOpen(board,row,col,-1,1) + CountOpen(board,row+Consecutive-1,col-Consecutive+1,1,-1);
 
-		switch(Consecutive){
-			case 5: return MAX_SCORE*20;
-			case 4: switch(openEnds){
-								case 2: if(turn.equals(player)){return MAX_SCORE;} else{return 500000;}
-								case 1: if(turn.equals(player)){return MAX_SCORE;} else{return 50;}
-							} break;
-			case 3: switch(openEnds){
-								case 2: if(turn.equals(player)){return 10000;} else{return 50;}
-								case 1: if(turn.equals(player)){return 10;} else{return 7;}
-							} break;
-			case 2: switch(openEnds){
-								case 2: return 7;
-								case 1: return 3;
-							} break;
-			case 1: switch(openEnds){
-								case 2: return 2;
-								case 1: return 1;
-							} break; // switch openEnds
-						} // switch Consecutive
-						return 0;
+		return EvaluateSet(Consecutive, openEnds, turn.equals(player)); // score of the set (same rules in every direction)
+	}
+
+	public static int EvaluateSet(int Consecutive, int openEnds, boolean my_turn) {
+		/** Score of a single set given its length, number of open-ends and whether it is the set owner's turn
+		 *  (same rules as the Evaluate* methods above, without looking at the board). 5 in a row is a win, a set of 1 to 4
+		 *  with an open end scores its weight (see Weights), anything else 0.
+		 **/
+		if(Consecutive == 5){return MAX_SCORE*20;}
+		if(Consecutive < 1 || Consecutive > 4 || openEnds < 1 || openEnds > 2){return 0;}
+		return weights()[Weights.index(Consecutive, openEnds, my_turn)];
+	}
+
+	public static int[] weights() {
+		/** Weights of the evaluation, read from weights_file the first time and again whenever weights_file is changed.
+		 *  Results computed with the old weights are not updated: a BitBoard keeps the pattern table it was created with
+		 *  and transposition table scores stay as stored, so chooseMove (a new BitBoard every move) and Analyzer clear
+		 *  their tables and make new boards when the weights change, and a SearchCache file is cleared by its signature.
+		 **/
+		int[] current = weights;
+		if(current == null || !java.util.Objects.equals(weights_loaded, weights_file)){current = loadWeights();}
+		return current;
+	}
+
+	static synchronized int[] loadWeights() {
+		if(weights == null || !java.util.Objects.equals(weights_loaded, weights_file)){
+			String file = weights_file;
+			weights = Weights.load(file);
+			weights_loaded = file;
+		}
+		return weights;
+	}
+
+	public static final class Weights {
+		/** The evaluation weights: the score of a set of 1 to 4 pieces in a row (or split set, see PatternTable) for each
+		 *  number of open ends (1, 2) and turn (mine - the set owner moves next, other - the opponent does), 16 numbers
+		 *  in the order of NAMES. 5 in a row is not a weight - it is the win, 20*MAX_SCORE.
+		 *  The file is a properties file, one "name = value" line per weight (weights left out keep their default);
+		 *  Tuner writes it from game records.
+		 **/
+		public static final String[] NAMES = {
+			"one_open1_mine", "one_open1_other", "one_open2_mine", "one_open2_other",
+			"two_open1_mine", "two_open1_other", "two_open2_mine", "two_open2_other",
+			"three_open1_mine", "three_open1_other", "three_open2_mine", "three_open2_other",
+			"four_open1_mine", "four_open1_other", "four_open2_mine", "four_open2_other"};
+		public static final int COUNT = NAMES.length;
+		public static final int[] DEFAULT = { // the hand-set scores of the original evaluation
+			1, 1, 2, 2,
+			3, 3, 7, 7,
+			10, 7, 10000, 50,
+			MAX_SCORE, 50, MAX_SCORE, 500000};
+
+		public static int index(int Consecutive, int openEnds, boolean my_turn) {
+			return ((Consecutive - 1)*2 + openEnds - 1)*2 + (my_turn ? 0 : 1);
+		}
+
+		public static int[] load(String file) {
+			/** Weights of file - the default ones if there is no such file. Loaded during a game (the first chooseMove),
+			 *  so nothing in the file may cost it: a value that is not a number keeps its default, like a missing one, and
+			 *  the others are clamped to [0, MAX_SCORE] (larger scores would overflow the sums of getGlobalScore and
+			 *  reach the win score, 20*MAX_SCORE).
+			 **/
+			return load(file, false);
+		}
+
+		public static int[] load(String file, boolean strict) {
+			/** As load(file), but when strict (offline tools - Tuner) a value that is not a number or out of [0, MAX_SCORE]
+			 *  throws IllegalArgumentException instead.
+			 **/
+			int[] loaded = DEFAULT.clone();
+			if (file == null) {return loaded;}
+			java.util.Properties properties = new java.util.Properties();
+			try (java.io.Reader in = new java.io.FileReader(file)) {properties.load(in);}
+			catch (java.io.IOException e) {return loaded;}
+			for (int i = 0; i < COUNT; i++) {
+				String value = properties.getProperty(NAMES[i]);
+				if (value == null) {continue;}
+				long number;
+				try {number = Long.parseLong(value.trim());}
+				catch (NumberFormatException e) {
+					if (strict) {throw new IllegalArgumentException(file + ": " + NAMES[i] + " is not a number: " + value);}
+					continue;
+				}
+				if (strict && (number < 0 || number > MAX_SCORE)) {
+					throw new IllegalArgumentException(file + ": " + NAMES[i] + " is not in [0, " + MAX_SCORE + "]: " + value);
+				}
+				loaded[i] = (int)Math.max(0, Math.min(number, MAX_SCORE));
+			}
+			return loaded;
+		}
+
+		public static void save(String file, int[] weights, String comment) throws java.io.IOException {
+			try (java.io.PrintWriter out = new java.io.PrintWriter(new java.io.FileWriter(file))) {
+				out.println("# Evaluation weights of Player (see Player.Weights)" + (comment == null ? "" : " - " + comment));
+				for (int i = 0; i < COUNT; i++) {out.println(NAMES[i] + " = " + weights[i]);}
+			}
+		}
+	}
+
+
+	public static final class BitBoard {
+		/** Bitboard representation of the size x size board used by the search (8x8 by default, up to MAX_SIZE).
+		 *  Bit (row*size + col) of stones[side] is set when side has a piece on (row, col); side 0 is white and side 1 is black.
+		 *  The board is converted once at the root of chooseMove and the search then only does make/unmake on it,
+		 *  so no Color objects are compared on the hot path. Every scan of the Color[][] board has an equivalent here
+		 *  giving the same result (getScore, CountPieces, CountOpen, getFiltMoves, isGameOver).
+		 *  The evaluation is incremental: every line of the board (rows, columns and both diagonals) keeps the pieces of
+		 *  each side as a bit mask and the score of its sets, and make/unmake only rescore the 4 lines going through the
+		 *  changed position, so getScore is O(1). The filtered moves (empty positions next to a piece) are kept the same
+		 *  way in a frontier bit set, so move generation never scans the positions one by one.
+		 *  With split_patterns the evaluation also scores split sets, so it is no longer equal to getScore(Color[][], ...).
+		 **/
+		public static final int DEFAULT_SIZE = 8;
+		public static final int MAX_SIZE = 19; // largest board - the segment tables of 19 positions lines have 2^20 entries
+		static final int[][] DIRS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; // horizontal, vertical, diagonal LR, diagonal RL
+		static final long[] ZOBRIST_MAX = new long[2]; // key per max player - the scores stored in the table depend on it
+		static {
+			java.util.Random random = new java.util.Random(20180412L); // fixed seed - same hashes in every run
+			for (int side = 0; side < 2; side++) {ZOBRIST_MAX[side] = random.nextLong();}
+		}
+
+		public final int size;
+		public final int cells; // size*size
+		final Geometry geometry;
+		public final long[][] stones; // pieces of each side, 64 positions per long
+		public long hash; // Zobrist hash of the position, updated by make/unmake
+		int pieces; // number of pieces on the board
+
+		// Incremental evaluation state - indexes [side][0: side's turn, 1: opponent's turn]
+		final int[] line_index; // pattern of each line as a base 3 number (short lines, see PatternTable)
+		final int[][] line_bits; // pieces of each side in each line (bit i - i-th position of the line)
+		final PatternTable patterns;
+		final int[][][] line_score; // score of the sets of each side in each line
+		final int[][] line_fives; // 1 if the line has 5 pieces in a row of side
+		final int[][] score_sum = new int[2][2]; // sum of line_score over all the lines
+		final int[] fives = new int[2]; // number of lines with 5 pieces in a row
+
+		// Frontier - empty positions with a piece in one of the 8 positions around them
+		final int[] near; // pieces around each position
+		final long[] frontier; // frontier positions, 64 per long
+		int frontier_count;
+
+		static final class Geometry {
+			/** Tables of one board size, shared by all the boards of that size: lines, neighbours and Zobrist keys.
+			 **/
+			static final Geometry[] CACHE = new Geometry[MAX_SIZE + 1];
+
+			final int size;
+			final int lines; // rows, columns and diagonals of every length
+			final int[][] line_sqs; // positions of each line, in order
+			final int[] line_len; // number of positions of each line
+			final int[][] sq_line; // line through each position, per direction
+			final int[][] sq_pos; // index of the position inside that line
+			final int[][] neighbours; // positions around each position (up to 8)
+			final long[][] zobrist; // random key per (side, position)
+			final int[][] symmetry; // position of each position under the 8 symmetries of the board (rotations and reflections)
+			final int[][] inverse; // inverse[t][symmetry[t][sq]] == sq
+
+			static synchronized Geometry of(int size) {
+				if (size < 1 || size > MAX_SIZE) {throw new IllegalArgumentException("board size " + size + " not in 1.." + MAX_SIZE);}
+				if (CACHE[size] == null) {CACHE[size] = new Geometry(size);}
+				return CACHE[size];
+			}
+
+			Geometry(int size) {
+				this.size = size;
+				int cells = size*size;
+				lines = 4*size + 2*(2*size - 1);
+				line_sqs = new int[lines][];
+				line_len = new int[lines];
+				sq_line = new int[4][cells];
+				sq_pos = new int[4][cells];
+				int line = 0;
+				for (int dir = 0; dir < 4; dir++) {
+					int rowd = DIRS[dir][0], cold = DIRS[dir][1];
+					for (int sq = 0; sq < cells; sq++) {
+						int row = sq / size, col = sq % size;
+						if (inside(row - rowd, col - cold)) {continue;} // not the first position of its line
+						int len = 0;
+						while (inside(row + len*rowd, col + len*cold)) {len++;}
+						line_sqs[line] = new int[len];
+						line_len[line] = len;
+						for (int i = 0; i < len; i++) {
+							int p = (row + i*rowd)*size + col + i*cold;
+							line_sqs[line][i] = p;
+							sq_line[dir][p] = line;
+							sq_pos[dir][p] = i;
+						}
+						line++;
+					}
+				}
+
+				neighbours = new int[cells][];
+				for (int sq = 0; sq < cells; sq++) {
+					int[] around = new int[8];
+					int count = 0;
+					for (int dir = 0; dir < 4; dir++) {
+						for (int sign = -1; sign <= 1; sign += 2) {
+							int r = sq / size + sign*DIRS[dir][0], c = sq % size + sign*DIRS[dir][1];
+							if (inside(r, c)) {around[count++] = r*size + c;}
+						}
+					}
+					neighbours[sq] = java.util.Arrays.copyOf(around, count);
+				}
+
+				zobrist = new long[2][cells];
+				java.util.Random random = new java.util.Random(20180412L + size); // fixed seed - same hashes in every run
+				for (int side = 0; side < 2; side++) {
+					for (int sq = 0; sq < cells; sq++) {zobrist[side][sq] = random.nextLong();}
+				}
+
+				// symmetry t: transpose if bit 2, then flip the rows if bit 0 and the columns if bit 1 (t = 0 - identity)
+				symmetry = new int[8][cells];
+				inverse = new int[8][cells];
+				for (int t = 0; t < 8; t++) {
+					for (int sq = 0; sq < cells; sq++) {
+						int r = sq / size, c = sq % size;
+						if ((t & 4) != 0) {int swap = r; r = c; c = swap;}
+						if ((t & 1) != 0) {r = size - 1 - r;}
+						if ((t & 2) != 0) {c = size - 1 - c;}
+						symmetry[t][sq] = r*size + c;
+						inverse[t][r*size + c] = sq;
+					}
+				}
+			}
+
+			boolean inside(int row, int col) {
+				return row >= 0 && row < size && col >= 0 && col < size;
+			}
+		}
+
+		public BitBoard() {
+			this(DEFAULT_SIZE);
+		}
+
+		public BitBoard(int size) {
+			this(size, PatternTable.get(split_patterns, size));
+		}
+
+		BitBoard(int size, PatternTable patterns) {
+			this.size = size;
+			this.cells = size*size;
+			this.geometry = Geometry.of(size);
+			this.patterns = patterns;
+			int lines = geometry.lines;
+			stones = new long[2][(cells + 63) >>> 6];
+			line_index = new int[lines];
+			line_bits = new int[2][lines];
+			line_score = new int[2][2][lines];
+			line_fives = new int[2][lines];
+			near = new int[cells];
+			frontier = new long[stones[0].length];
+		}
+
+		public static int side(Color piece) {
+			return Color.WHITE.equals(piece) ? 0 : 1;
+		}
+
+		public static BitBoard fromColors(Color[][] board) {
+			/** Converts the referee's board into a bitboard of the same size (the Color[][] board is only read).
+			 **/
+			int size = board.length;
+			BitBoard bitboard = new BitBoard(size);
+			for (int row = 0; row < size; row++) {
+				for (int col = 0; col < size; col++) {
+					if (board[row][col] != null) {
+						bitboard.make(row*size + col, side(board[row][col]));
+					}
+				}
+			}
+			return bitboard;
+		}
+
+		public long symmetricHash(int t) {
+			/** Zobrist hash of the position transformed by the board symmetry t (see Geometry.symmetry) - t = 0 gives hash.
+			 **/
+			long key = 0;
+			int[] map = geometry.symmetry[t];
+			for (int side = 0; side < 2; side++) {
+				long[] keys = geometry.zobrist[side];
+				for (int w = 0; w < stones[side].length; w++) {
+					for (long bits = stones[side][w]; bits != 0; bits &= bits - 1) {
+						key ^= keys[map[(w << 6) + Long.numberOfTrailingZeros(bits)]];
+					}
+				}
+			}
+			return key;
+		}
+
+		public int canonicalSymmetry() {
+			/** Symmetry t with the smallest symmetricHash(t): the 8 rotations and reflections of a position all have the
+			 *  same canonical hash symmetricHash(canonicalSymmetry()), and a move sq of the position is the move
+			 *  geometry.symmetry[t][sq] of the canonical position.
+			 **/
+			int best = 0;
+			long best_key = symmetricHash(0);
+			for (int t = 1; t < 8; t++) {
+				long key = symmetricHash(t);
+				if (key < best_key) {best = t; best_key = key;}
+			}
+			return best;
+		}
+
+		public void clear() {
+			/** Removes every piece (the board is empty again, its tables are kept).
+			 **/
+			for (int side = 0; side < 2; side++) {
+				for (int w = 0; w < stones[side].length; w++) {
+					for (long bits = stones[side][w]; bits != 0; bits &= bits - 1) {unmake((w << 6) + Long.numberOfTrailingZeros(bits), side);}
+				}
+			}
+		}
+
+		public BitBoard copy() {
+			/** Independent copy (each search thread works on its own board).
+			 **/
+			BitBoard copy = new BitBoard(size, patterns);
+			int lines = geometry.lines;
+			copy.hash = hash;
+			copy.pieces = pieces;
+			System.arraycopy(line_index, 0, copy.line_index, 0, lines);
+			for (int side = 0; side < 2; side++) {
+				System.arraycopy(stones[side], 0, copy.stones[side], 0, stones[side].length);
+				System.arraycopy(line_bits[side], 0, copy.line_bits[side], 0, lines);
+				for (int t = 0; t < 2; t++) {
+					System.arraycopy(line_score[side][t], 0, copy.line_score[side][t], 0, lines);
+					copy.score_sum[side][t] = score_sum[side][t];
+				}
+				System.arraycopy(line_fives[side], 0, copy.line_fives[side], 0, lines);
+				copy.fives[side] = fives[side];
+			}
+			System.arraycopy(near, 0, copy.near, 0, cells);
+			System.arraycopy(frontier, 0, copy.frontier, 0, frontier.length);
+			copy.frontier_count = frontier_count;
+			return copy;
+		}
+
+		public boolean isEmpty(int sq) {
+			return ((stones[0][sq >>> 6] | stones[1][sq >>> 6]) & (1L << sq)) == 0;
+		}
+
+		public void make(int sq, int side) {
+			stones[side][sq >>> 6] |= 1L << sq;
+			hash ^= geometry.zobrist[side][sq];
+			pieces++;
+			for (int dir = 0; dir < 4; dir++) {
+				int line = geometry.sq_line[dir][sq];
+				int pos = geometry.sq_pos[dir][sq];
+				line_index[line] += (side + 1) * PatternTable.POW3[pos];
+				line_bits[side][line] |= 1 << pos;
+				updateLine(line);
+			}
+			if (near[sq] > 0) {removeFrontier(sq);}
+			for (int n : geometry.neighbours[sq]) {
+				if (near[n]++ == 0 && isEmpty(n)) {addFrontier(n);}
+			}
+		}
+
+		public void unmake(int sq, int side) {
+			stones[side][sq >>> 6] &= ~(1L << sq);
+			hash ^= geometry.zobrist[side][sq];
+			pieces--;
+			for (int dir = 0; dir < 4; dir++) {
+				int line = geometry.sq_line[dir][sq];
+				int pos = geometry.sq_pos[dir][sq];
+				line_index[line] -= (side + 1) * PatternTable.POW3[pos];
+				line_bits[side][line] &= ~(1 << pos);
+				updateLine(line);
+			}
+			for (int n : geometry.neighbours[sq]) {
+				if (--near[n] == 0 && isEmpty(n)) {removeFrontier(n);}
+			}
+			if (near[sq] > 0) {addFrontier(sq);}
+		}
+
+		void addFrontier(int sq) {
+			frontier[sq >>> 6] |= 1L << sq;
+			frontier_count++;
+		}
+
+		void removeFrontier(int sq) {
+			frontier[sq >>> 6] &= ~(1L << sq);
+			frontier_count--;
+		}
+
+		void updateLine(int line) {
+			/** Rescores the sets of both sides in line and updates the running sums: one table lookup per side for a short
+			 *  line, one per segment for a long one (see PatternTable).
+			 **/
+			int len = geometry.line_len[line];
+			if (len <= PatternTable.SHORT_LINE) {
+				int pattern = PatternTable.OFFSET[len] + line_index[line];
+				for (int side = 0; side < 2; side++) {
+					setLine(line, side, patterns.score[side][0][pattern], patterns.score[side][1][pattern], patterns.five[side][pattern]);
+				}
+				return;
+			}
+			int[] table = patterns.segment_score;
+			for (int side = 0; side < 2; side++) {
+				int own = line_bits[side][line];
+				int free = ~line_bits[1 - side][line] & ((1 << len) - 1); // positions not taken by the opponent
+				int mine = 0, other = 0, five = 0;
+				while (free != 0) { // one segment per iteration
+					int start = Integer.numberOfTrailingZeros(free);
+					int run = Integer.numberOfTrailingZeros(~(free >>> start));
+					int mask = (1 << run) - 1;
+					free &= ~(mask << start);
+					int segment = (own >>> start) & mask;
+					if (segment == 0) {continue;} // no pieces - no score
+					int pattern = ((1 << run) | segment) << 1;
+					mine += table[pattern];
+					other += table[pattern + 1];
+					if (PatternTable.hasFive(segment)) {five++;}
+				}
+				setLine(line, side, mine, other, five);
+			}
+		}
+
+		void setLine(int line, int side, int mine, int other, int five) {
+			score_sum[side][0] += mine - line_score[side][0][line];
+			score_sum[side][1] += other - line_score[side][1][line];
+			fives[side] += five - line_fives[side][line];
+			line_score[side][0][line] = mine;
+			line_score[side][1][line] = other;
+			line_fives[side][line] = five;
+		}
+
+		public int threatScore(int sq, int side) {
+			/** Cheap ordering score of an empty position for side to move: how much the lines through it gain if side
+			 *  plays there (attack) plus how much they would gain for the opponent (defence). 5 in a row comes first.
+			 **/
+			if (size > PatternTable.SHORT_LINE) {return threatScoreSegments(sq, side);}
+			int attack = 0, defence = 0;
+			for (int dir = 0; dir < 4; dir++) {
+				int line = geometry.sq_line[dir][sq];
+				int pattern = PatternTable.OFFSET[geometry.line_len[line]] + line_index[line];
+				int pow = PatternTable.POW3[geometry.sq_pos[dir][sq]];
+				int own_pattern = pattern + (side + 1)*pow;
+				int opp_pattern = pattern + (2 - side)*pow;
+				if (patterns.five[side][own_pattern] != 0) {return 1 << 30;} // win
+				if (patterns.five[1 - side][opp_pattern] != 0) {defence = 1 << 29;} // block opponent's 5
+				attack += patterns.score[side][1][own_pattern] - line_score[side][1][line];
+				defence += patterns.score[1 - side][0][opp_pattern] - line_score[1 - side][0][line];
+			}
+			return (int)Math.max(0, Math.min((long)attack + defence, 1 << 29));
+		}
+
+		int threatScoreSegments(int sq, int side) {
+			/** threatScore of a board with long lines: only the segment holding sq changes in each line, so only that one
+			 *  is rescored (see PatternTable).
+			 **/
+			int[] table = patterns.segment_score;
+			int attack = 0, defence = 0;
+			for (int dir = 0; dir < 4; dir++) {
+				int line = geometry.sq_line[dir][sq];
+				int pos = geometry.sq_pos[dir][sq];
+				int len = geometry.line_len[line];
+				int own = line_bits[side][line], opp = line_bits[1 - side][line];
+
+				int below = opp & ((1 << pos) - 1), above = opp >>> pos; // side's segment - bounded by the opponent's pieces
+				int start = below == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(below);
+				int run = (above == 0 ? len : pos + Integer.numberOfTrailingZeros(above)) - start;
+				int segment = (own >>> start) & ((1 << run) - 1), bit = 1 << (pos - start);
+				if (PatternTable.hasFive(segment | bit)) {return 1 << 30;} // win
+				int pattern = ((1 << run) | segment) << 1;
+				attack += table[(pattern | (bit << 1)) + 1] - table[pattern + 1];
+
+				below = own & ((1 << pos) - 1); above = own >>> pos; // opponent's segment - bounded by side's pieces
+				start = below == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(below);
+				run = (above == 0 ? len : pos + Integer.numberOfTrailingZeros(above)) - start;
+				segment = (opp >>> start) & ((1 << run) - 1); bit = 1 << (pos - start);
+				if (PatternTable.hasFive(segment | bit)) {defence = 1 << 29;} // block opponent's 5
+				pattern = ((1 << run) | segment) << 1;
+				defence += table[pattern | (bit << 1)] - table[pattern];
+			}
+			return (int)Math.max(0, Math.min((long)attack + defence, 1 << 29));
+		}
+
+		public int lineThreat(int sq, int side) {
+			/** Most pieces of side in a window of 5 positions through the empty position sq, with no opponent's piece, once
+			 *  side plays sq: 5 - the move makes 5 in a row, 4 - a four, 3 - a three, 2 - less.
+			 **/
+			int most = 2;
+			for (int dir = 0; dir < 4; dir++) {
+				int line = geometry.sq_line[dir][sq];
+				int pos = geometry.sq_pos[dir][sq];
+				int own = line_bits[side][line] | (1 << pos), opp = line_bits[1 - side][line];
+				if (Integer.bitCount(own) <= most) {continue;} // too few pieces in the whole line to do better
+				for (int start = Math.max(0, pos - 4), last = Math.min(pos, geometry.line_len[line] - 5); start <= last; start++) {
+					int window = 31 << start;
+					if ((opp & window) == 0) {most = Math.max(most, Integer.bitCount(own & window));}
+				}
+			}
+			return most;
+		}
+
+		public boolean hasFive(int side) {
+			/** Checks for 5 pieces in a row of side (kept up to date by make/unmake).
+			 **/
+			return fives[side] > 0;
+		}
+
+		public int getFiltMoves(int[] moves) {
+			/** Same moves as getFiltMoves(Color[][], Color), in the same order, written in moves. Returns the number of moves.
+			 **/
+			if (frontier_count == 0) {
+				int centre = ((size - 1)/2)*size + (size - 1)/2;
+				if (pieces == 0) {moves[0] = centre; return 1;} // board is empty (first move)
+				return 0;
+			}
+			int count = 0;
+			for (int word = 0; word < frontier.length; word++) {
+				for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+					moves[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			return count;
+		}
+
+		public int moveCount() {
+			/** Number of moves getFiltMoves returns.
+			 **/
+			return frontier_count > 0 ? frontier_count : (pieces == 0 ? 1 : 0);
+		}
+
+		public int CountPieces(int row, int col, int rowd, int cold, int side) {
+			/** Counts number of connected pieces of side starting from (row, col) and moving in direction (rowd, cold).
+			 **/
+			int count = 0;
+			for (int i = 0; i < 5; i++) {
+				int r = row + i * rowd, c = col + i * cold;
+				if (geometry.inside(r, c)) { // position is within grid
+					int sq = r*size + c;
+					if ((stones[side][sq >>> 6] & (1L << sq)) != 0) count++;
+					else break;
+				}
+			}
+			return count;
+		}
+
+		public int CountOpen(int row, int col, int rowd, int cold) {
+			/** Checks if there is an open end in the position [row+rowd, col+cold]
+			 **/
+			int r = row + rowd, c = col + cold;
+			if (geometry.inside(r, c)) { // position is within grid
+				if (isEmpty(r*size + c)) return 1;
+			}
+			return 0;
+		}
+
+		public int getScore(int side, int turn) {
+			/** Same as getScore(Color[][], Color, Color), read from the incremental line scores.
+			 **/
+			if (fives[side] > 0) {return MAX_SCORE*20;}
+			return score_sum[side][side == turn ? 0 : 1];
+		}
+
+		public int getGlobalScore(int max_side, int turn) {
+			/** Get gobal score by subtracting min eval to the max eval.
+			 **/
+			int score_max = getScore(max_side, turn);
+			if (score_max == MAX_SCORE*20) {return score_max;} // signal a win for max
+			int score_min = getScore(1 - max_side, turn);
+			if (score_min == MAX_SCORE*20) {return -score_min;} // signal a win for min
+			return score_max - score_min;
+		}
+
+		public boolean isGameOver(int max_side, int turn) {
+			/** Check if its terminal condition (win, loss or draw).
+			 **/
+			int score = getGlobalScore(max_side, turn);
+			return score == 20*MAX_SCORE || score == -20*MAX_SCORE || moveCount() == 0;
+		}
+
+	}
+
+	public static final class TransTable {
+		/** Fixed-size transposition table stored in two primitive arrays (no objects per entry), shared by the search threads.
+		 *  The table is split in buckets of 2 entries: the first one keeps the deepest search of the bucket
+		 *  (replaced only by a deeper or equally deep search, or by any search once it is from an older move),
+		 *  the second one is always replaced. Every entry packs depth, bound type, score and best move in one long:
+		 *  [score: bits 0-31][depth: 32-39][bound: 40-41][move+1: 42-57][age: 58-62][valid: 63]
+		 *  It is lock-free: keys[i] holds key ^ data[i], so an entry half-written by another thread does not match its key.
+		 **/
+		public static final int EXACT = 0; // bound types
+		public static final int LOWER = 1; // score >= stored score (beta cutoff)
+		public static final int UPPER = 2; // score <= stored score (no move raised alpha)
+
+		final int size_mb;
+		final long[] keys;
+		final long[] data;
+		final int mask; // number of buckets - 1
+		int age; // incremented at every chooseMove call
+
+		public TransTable(int size_mb) {
+			this.size_mb = size_mb;
+			int buckets = Integer.highestOneBit(Math.max(1, (int)Math.min(1L << 29, ((long)size_mb << 20) / 32))); // 2 entries of 16 bytes per bucket
+			keys = new long[2*buckets];
+			data = new long[2*buckets];
+			mask = buckets - 1;
+		}
+
+		public void clear() {
+			java.util.Arrays.fill(keys, 0);
+			java.util.Arrays.fill(data, 0);
+		}
+
+		public void newSearch() {
+			age = (age + 1) & 31;
+		}
+
+		public long probe(long key) {
+			/** Returns the entry stored for key (0 if there is none).
+			 **/
+			int i = ((int)key & mask) << 1;
+			long entry = data[i];
+			if (entry != 0 && (keys[i] ^ entry) == key) {return entry;}
+			entry = data[i+1];
+			if (entry != 0 && (keys[i+1] ^ entry) == key) {return entry;}
+			return 0;
+		}
+
+		public void store(long key, int depth, int bound, int score, int move) {
+			/** Stores a search result (move is row*size + col, negative if there is no move).
+			 **/
+			if (move < 0) {move = -1;}
+			int i = ((int)key & mask) << 1;
+			long old = data[i];
+			if ((keys[i+1] ^ data[i+1]) == key || ((keys[i] ^ old) != key && old != 0 && depth(old) > depth && age(old) == age)) {
+				i++; // depth-preferred entry is worth keeping - use the always-replace one
+			}
+			long entry = (score & 0xFFFFFFFFL) | ((long)depth << 32) | ((long)bound << 40) | ((long)(move + 1) << 42) | ((long)age << 58) | (1L << 63);
+			keys[i] = key ^ entry;
+			data[i] = entry;
+		}
+
+		public static int score(long entry) {return (int)entry;}
+		public static int depth(long entry) {return (int)(entry >>> 32) & 0xFF;}
+		public static int bound(long entry) {return (int)(entry >>> 40) & 3;}
+		public static int move(long entry) {return ((int)(entry >>> 42) & 0xFFFF) - 1;} // -1 if no move
+		static int age(long entry) {return (int)(entry >>> 58) & 31;}
+
+		public static int[] toMove(long entry, int size) {
+			/** Entry as a search result [pos x, pos y, score, time exceeded] on a size x size board.
+			 **/
+			int move = move(entry);
+			int[] best_move = new int[4];
+			best_move[0] = move < 0 ? -1 : move / size;
+			best_move[1] = move < 0 ? -1 : move % size;
+			best_move[2] = score(entry);
+			return best_move;
+		}
+	}
+
+	public static final class OpeningBook {
+		/** Book of opening moves read from a file written offline by BookGenerator, looked up before any search.
+		 *  The file is a header [magic, version, board size, entries] of 4 ints followed by the entries sorted by key,
+		 *  14 bytes each: [canonical hash: long][move: short][score: int]. The key is the hash of the position under its
+		 *  canonical symmetry (BitBoard.canonicalSymmetry), so the 8 rotations and reflections of a position share one
+		 *  entry, and the move is stored in the canonical position's coordinates.
+		 *  The file is memory-mapped on the first lookup, so loading costs nothing until it is needed and reads only the
+		 *  pages a binary search touches; lookups are O(log n) and do not change any state, so one book serves all threads.
+		 **/
+		public static final int MAGIC = 0x474D4B42; // "GMKB"
+		public static final int VERSION = 1;
+		static final int HEADER = 16;
+		static final int ENTRY = 14;
+		static final java.util.Map<String, OpeningBook> BOOKS = new java.util.HashMap<String, OpeningBook>(); // null - no valid book
+
+		final java.nio.ByteBuffer data;
+		public final int size; // board size
+		public final int entries;
+
+		OpeningBook(java.nio.ByteBuffer data) {
+			this.data = data;
+			this.size = data.getInt(8);
+			this.entries = data.getInt(12);
+		}
+
+		public static synchronized OpeningBook get(String file) {
+			/** Book in file, mapped on the first call (null if the file is missing or is not a book of this version).
+			 **/
+			if (!BOOKS.containsKey(file)) {
+				OpeningBook book = null;
+				try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(file))) {
+					java.nio.ByteBuffer data = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					if (data.capacity() >= HEADER && data.getInt(0) == MAGIC && data.getInt(4) == VERSION
+							&& data.capacity() == HEADER + (long)ENTRY*data.getInt(12)) {
+						book = new OpeningBook(data);
+					}
+				} catch (java.io.IOException | RuntimeException e) {} // no book - every move is searched
+				BOOKS.put(file, book);
+			}
+			return BOOKS.get(file);
+		}
+
+		public int[] probe(BitBoard board) {
+			/** Book move of the position as [x_pos, y_pos, score, 0], null if the position is not in the book.
+			 **/
+			if (board.size != size) {return null;}
+			int t = board.canonicalSymmetry();
+			long key = board.symmetricHash(t);
+			int low = 0, high = entries - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long mid_key = data.getLong(HEADER + mid*ENTRY);
+				if (mid_key < key) {low = mid + 1;}
+				else if (mid_key > key) {high = mid - 1;}
+				else {
+					int move = data.getShort(HEADER + mid*ENTRY + 8) & 0xFFFF;
+					if (move < 0 || move >= board.cells) {return null;} // corrupt or hand-made book - search instead
+					int sq = board.geometry.inverse[t][move];
+					if (!board.isEmpty(sq)) {return null;} // hash collision
+					return new int[] {sq / size, sq % size, data.getInt(HEADER + mid*ENTRY + 10), 0};
+				}
+			}
+			return null;
+		}
+
+		public static void write(String file, int size, long[] keys, int[] moves, int[] scores, int count) throws java.io.IOException {
+			/** Writes a book of count entries: position keys (canonical hashes), moves (in the canonical position) and scores.
+			 **/
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {order[i] = i;}
+			java.util.Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+			java.nio.ByteBuffer data = java.nio.ByteBuffer.allocate(HEADER + ENTRY*count);
+			data.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(count);
+			for (int i : order) {data.putLong(keys[i]).putShort((short)moves[i]).putInt(scores[i]);}
+			java.nio.file.Files.write(java.nio.file.Paths.get(file), data.array());
+		}
+	}
+
+	public static final class SearchCache {
+		/** Persistent cache of the root search results (depth, score, best move) of chooseMove, kept in a memory-mapped
+		 *  file shared by every engine process of the host, so positions searched in earlier games (or by another process)
+		 *  start warm: a result as deep as a full search is played without searching, a shallower one is put in the
+		 *  transposition table, where the root takes it and the iterative deepening goes on from its depth.
+		 *  The file is a header [magic, version, buckets: int][signature: long][reserved: int] of 24 bytes padded to 64,
+		 *  then buckets of 4 slots of 16 bytes (one cache line): [key ^ data: long][data: long] with data packing
+		 *  [score: bits 0-31][depth: 32-39][move+1: 40-55][age: 56-63] (0 - empty slot). The key is the hash of the
+		 *  position under its canonical symmetry with the side to move and the board size, so the 8 rotations and
+		 *  reflections of a position share one slot, and the move is stored in the canonical position's coordinates.
+		 *  It is lock-free, as TransTable: a slot half-written by another thread or process does not match its key. The
+		 *  file is only locked while it is opened; its size is fixed when it is created (cache_mb). The age is the hour
+		 *  the result was stored: a key already present is replaced by a deeper or newer result, otherwise the slot of the
+		 *  bucket with the lowest depth - hours since stored is taken, so old shallow results go first.
+		 *  Scores depend on the evaluation: the signature of the weights is in the header and a file written with other
+		 *  weights is cleared when opened (processes using different weights need different files).
+		 **/
+		public static final int MAGIC = 0x474D4B43; // "GMKC"
+		public static final int VERSION = 1;
+		public static final int PROVEN = 255; // depth of the results of the endgame solver (exact, whatever the depth)
+		static final int HEADER = 64;
+		static final int SLOT = 16;
+		static final int BUCKET = 4*SLOT;
+		static final java.util.Map<String, SearchCache> CACHES = new java.util.HashMap<String, SearchCache>(); // null - no cache
+
+		final java.nio.MappedByteBuffer data;
+		final long signature;
+		final int mask; // number of buckets - 1
+
+		SearchCache(java.nio.MappedByteBuffer data, long signature) {
+			this.data = data;
+			this.signature = signature;
+			this.mask = data.getInt(8) - 1;
+		}
+
+		public static synchronized SearchCache get(String file) {
+			/** Cache in file, mapped on the first call and created if missing (null if the file cannot be mapped).
+			 **/
+			long signature = signature();
+			SearchCache cache = CACHES.get(file);
+			if (!CACHES.containsKey(file) || (cache != null && cache.signature != signature)) {
+				cache = null;
+				try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(file),
+						java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.READ, java.nio.file.StandardOpenOption.WRITE)) {
+					java.nio.channels.FileLock lock = channel.lock(); // another process may be creating it
+					try {
+						long length = channel.size();
+						java.nio.MappedByteBuffer data;
+						if (length >= HEADER) {
+							data = channel.map(java.nio.channels.FileChannel.MapMode.READ_WRITE, 0, length);
+							int buckets = data.getInt(8);
+							boolean valid = data.getInt(0) == MAGIC && data.getInt(4) == VERSION && buckets > 0
+								&& Integer.bitCount(buckets) == 1 && length == HEADER + (long)BUCKET*buckets;
+							if (valid && data.getLong(12) != signature) {
+								for (int i = HEADER; i < length; i += 8) {data.putLong(i, 0);} // results of another evaluation
+								data.putLong(12, signature);
+							}
+							if (valid) {cache = new SearchCache(data, signature);}
+						}
+						if (cache == null) { // new file, or not a cache of this version - the size is taken from cache_mb
+							int buckets = Integer.highestOneBit(Math.max(1, (int)Math.min(1L << 26, ((long)cache_mb << 20) / BUCKET)));
+							channel.truncate(0);
+							data = channel.map(java.nio.channels.FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)BUCKET*buckets);
+							for (int i = HEADER; i < data.capacity(); i += 8) {data.putLong(i, 0);}
+							data.putInt(8, buckets).putLong(12, signature).putInt(4, VERSION).putInt(0, MAGIC);
+							cache = new SearchCache(data, signature);
+						}
+					} finally {
+						lock.release();
+					}
+				} catch (java.io.IOException | RuntimeException e) {} // no cache - every move is searched
+				CACHES.put(file, cache);
+			}
+			return cache;
+		}
+
+		static long signature() {
+			/** Hash of what the stored scores depend on: the evaluation weights and split_patterns.
+			 **/
+			long signature = VERSION;
+			for (int weight : weights()) {signature = signature*31 + weight;}
+			return signature*31 + (split_patterns ? 1 : 0);
+		}
+
+		static long key(BitBoard board, int t, int side) {
+			return board.symmetricHash(t) ^ BitBoard.ZOBRIST_MAX[side] ^ (board.size * 0x9E3779B97F4A7C15L);
+		}
+
+		static int hour() {
+			return (int)(System.currentTimeMillis() / 3600000) & 0xFF;
+		}
+
+		public int[] probe(BitBoard board, int side) {
+			/** Result stored for the position with side to move as [x_pos, y_pos, score, depth], null if there is none.
+			 **/
+			int t = board.canonicalSymmetry();
+			long key = key(board, t, side);
+			int bucket = HEADER + ((int)key & mask)*BUCKET;
+			for (int i = bucket; i < bucket + BUCKET; i += SLOT) {
+				long entry = data.getLong(i + 8);
+				if (entry != 0 && (data.getLong(i) ^ entry) == key) {
+					int move = ((int)(entry >>> 40) & 0xFFFF) - 1;
+					if (move < 0 || move >= board.cells) {return null;}
+					int sq = board.geometry.inverse[t][move];
+					if (!board.isEmpty(sq)) {return null;} // hash collision
+					return new int[] {sq / board.size, sq % board.size, (int)entry, (int)(entry >>> 32) & 0xFF};
+				}
+			}
+			return null;
+		}
+
+		public void store(BitBoard board, int side, int depth, int score, int move) {
+			/** Stores the result of a search of the position with side to move (move is row*size + col).
+			 **/
+			if (move < 0 || move >= board.cells) {return;}
+			int t = board.canonicalSymmetry();
+			long key = key(board, t, side);
+			int age = hour();
+			int bucket = HEADER + ((int)key & mask)*BUCKET;
+			int victim = bucket, victim_priority = Integer.MAX_VALUE;
+			for (int i = bucket; i < bucket + BUCKET; i += SLOT) {
+				long entry = data.getLong(i + 8);
+				if (entry != 0 && (data.getLong(i) ^ entry) == key) {
+					if (((int)(entry >>> 32) & 0xFF) > depth && (int)(entry >>> 56) == age) {return;} // deeper result of this hour
+					victim = i;
+					break;
+				}
+				int priority = entry == 0 ? -1 : ((int)(entry >>> 32) & 0xFF) - ((age - (int)(entry >>> 56)) & 0xFF);
+				if (priority < victim_priority) {victim = i; victim_priority = priority;}
+			}
+			long entry = (score & 0xFFFFFFFFL) | ((long)Math.min(depth, PROVEN) << 32) | ((long)(board.geometry.symmetry[t][move] + 1) << 40) | ((long)age << 56);
+			data.putLong(victim, key ^ entry);
+			data.putLong(victim + 8, entry);
+		}
+	}
+
+	public static final class PatternTable {
+		/** Precomputed scores of every possible line of the board.
+		 *  A short line (up to SHORT_LINE positions - every line of the 8x8 board) is encoded as the base 3 number
+		 *  sum(cell_i * 3^i), with cell 0 - empty, 1 - white, 2 - black, so evaluating it is a single lookup (one table per
+		 *  line length, stored one after the other).
+		 *  A longer line would need 3^len entries, so it is split instead by the pieces of the opponent in segments that are
+		 *  scored independently (a set next to an opponent's piece or to the end of the line has no open end there, and no set
+		 *  or split set goes through an opponent's piece): a segment of len positions is the bit mask own of the positions
+		 *  holding the owner's pieces, looked up at index ((1 << len) | own)*2 + turn.
+		 *  Both tables are generated from the same rules as the Evaluate* methods (EvaluateSet).
+		 *  The split tables also score split sets, which the consecutive-only counting misses:
+		 *  a split four (X.XXX, XX.XX, XXX.X - one move from 5 in a row) is scored as a four with 1 open end and
+		 *  a split three with both ends open (.X.XX., .XX.X.) as a three with 2 open ends.
+		 **/
+		static final int SHORT_LINE = 8;
+		static final int[] POW3 = new int[BitBoard.MAX_SIZE + 1];
+		static final int[] OFFSET = new int[SHORT_LINE + 2]; // first entry of the table of each short line length
+		static {
+			POW3[0] = 1;
+			for (int i = 1; i <= BitBoard.MAX_SIZE; i++) {POW3[i] = 3*POW3[i-1];}
+			for (int len = 1; len <= SHORT_LINE + 1; len++) {OFFSET[len] = OFFSET[len-1] + POW3[len-1];}
+		}
+		static final PatternTable[] TABLES = new PatternTable[2]; // [0: consecutive sets only, 1: split sets]
+
+		final int max_len; // longest segment in segment_score (0 - only short lines)
+		final int[] weights; // weights the scores were computed with
+		final int[][][] score = new int[2][2][OFFSET[SHORT_LINE + 1]]; // short lines [side][0: side's turn, 1: opponent's turn][pattern]
+		final int[][] five = new int[2][OFFSET[SHORT_LINE + 1]]; // 1 if side has 5 in a row in pattern
+		final int[] segment_score; // segments of the long lines [((1 << len) | own)*2 + (0: owner's turn, 1: opponent's turn)]
+
+		static synchronized PatternTable get(boolean split, int size) {
+			/** Table covering the lines of a size x size board with the current weights (the tables only grow, smaller
+			 *  boards share them; they are built again when the weights change).
+			 **/
+			int len = size > SHORT_LINE ? size : 0;
+			int i = split ? 1 : 0;
+			int[] current = weights();
+			if (TABLES[i] == null || TABLES[i].max_len < len || TABLES[i].weights != current) {
+				TABLES[i] = new PatternTable(split, TABLES[i] == null ? len : Math.max(len, TABLES[i].max_len), current);
+			}
+			return TABLES[i];
+		}
+
+		PatternTable(boolean split, int max_len, int[] weights) {
+			this.max_len = max_len;
+			this.weights = weights;
+			int[] sets = new int[3*Math.max(max_len, SHORT_LINE)];
+			for (int len = 1; len <= SHORT_LINE; len++) {
+				for (int index = 0; index < POW3[len]; index++) {
+					int[] bits = new int[3]; // positions holding 0 - nothing, 1 - white, 2 - black
+					for (int i = 0, rest = index; i < len; i++, rest /= 3) {bits[rest % 3] |= 1 << i;}
+					for (int side = 0; side < 2; side++) {
+						int own = bits[side + 1];
+						int pattern = OFFSET[len] + index;
+						score[side][0][pattern] = scoreLine(own, bits[0], len, true, split, sets);
+						score[side][1][pattern] = scoreLine(own, bits[0], len, false, split, sets);
+						five[side][pattern] = hasFive(own) ? 1 : 0;
+					}
+				}
+			}
+			segment_score = new int[max_len == 0 ? 0 : 4 << max_len];
+			for (int len = 1; len <= max_len; len++) {
+				for (int own = 0; own < 1 << len; own++) {
+					int empty = ~own & ((1 << len) - 1);
+					segment_score[((1 << len) | own) << 1] = scoreLine(own, empty, len, true, split, sets);
+					segment_score[(((1 << len) | own) << 1) + 1] = scoreLine(own, empty, len, false, split, sets);
+				}
+			}
+		}
+
+		static boolean hasFive(int own) {
+			return (own & (own >>> 1) & (own >>> 2) & (own >>> 3) & (own >>> 4)) != 0;
+		}
+
+		static int scoreLine(int own, int empty, int len, boolean my_turn, boolean split, int[] sets) {
+			/** Score of the sets in one line (own/empty: bit i set if the i-th position is own piece/empty), sets being a
+			 *  buffer for sets().
+			 **/
+			int score_sum = 0;
+			int count = sets(own, empty, len, split, sets);
+			for (int i = 0; i < count; i++) {score_sum += EvaluateSet(sets[i] >>> 2, sets[i] & 3, my_turn);}
+			return score_sum;
+		}
+
+		static int sets(int own, int empty, int len, boolean split, int[] out) {
+			/** Sets of one line (own/empty: bit i set if the i-th position is own piece/empty) written in out as
+			 *  Consecutive << 2 | openEnds, split sets as the set they are scored as. Returns how many (at most 3*len).
+			 *  The score of the line is the sum of the weights of its sets - what Tuner counts.
+			 **/
+			int count = 0;
+			int sets = own;
+			while (sets != 0) { // one set per iteration
+				int start = Integer.numberOfTrailingZeros(sets);
+				int Consecutive = Integer.numberOfTrailingZeros(~(sets >>> start));
+				sets &= ~(((1 << Consecutive) - 1) << start);
+				if (Consecutive >= 5) {continue;} // 5 in a row is signalled apart (five)
+				int openEnds = (start > 0 ? (empty >>> (start - 1)) & 1 : 0) + ((empty >>> (start + Consecutive)) & 1);
+				out[count++] = Consecutive << 2 | openEnds;
+			}
+			if (split) {
+				for (int gap = 1; gap < len - 1; gap++) { // split four - filling the gap between own pieces gives 5 in a row
+					if (((empty >>> gap) & 1) != 0 && ((own >>> (gap - 1)) & 1) != 0 && ((own >>> (gap + 1)) & 1) != 0 && hasFive(own | (1 << gap))) {
+						out[count++] = 4 << 2 | 1;
+					}
+				}
+				for (int start = 0; start + 6 <= len; start++) { // split three with both ends open
+					int window = 0;
+					for (int i = 0; i < 6; i++) {
+						if (((own >>> (start + i)) & 1) != 0) {window |= 1 << i;}
+						else if (((empty >>> (start + i)) & 1) == 0) {window = -1; break;} // opponent's piece
+					}
+					if (window == 0x1A || window == 0x16) { // .X.XX. or .XX.X. (bit 0 is the left end)
+						out[count++] = 3 << 2 | 2;
+					}
+				}
+			}
+			return count;
+		}
 	}
 
 }
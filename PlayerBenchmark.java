@@ -0,0 +1,392 @@
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+/** Micro-benchmarks of the search and evaluation hot paths of Player.
+ *  Every benchmark runs over a fixed suite of opening, midgame and tactical positions and reports the time per
+ *  operation, the bytes allocated per operation (measured on the benchmark thread) and, for the search, nodes per second.
+ *  Run it after every engine change and compare with the numbers of the previous build:
+ *    javac *.java && java PlayerBenchmark [depth] [seconds per benchmark]
+ *  The same calls are run by JMH (forks, warm-up, error bars) in jmh/, see jmh/src/main/java/gomoku/jmh/EngineBenchmark.java:
+ *    mvn -f jmh/pom.xml package && java -jar jmh/target/benchmarks.jar
+ *  The endgame mode times the endgame solver on the late positions of self-play games, by number of empty positions,
+ *  and prints the largest number it always solves within endgame_time - the value to give to Player.endgame_empty:
+ *    javac *.java && java PlayerBenchmark endgame [games]
+ *  The selective mode searches every position for a fixed time with each selective search feature alone, none and all
+ *  of them, and reports the depth reached - the depth each feature gains in the same time:
+ *    javac *.java && java PlayerBenchmark selective [seconds per search]
+ *  The threads mode plays every position with chooseMove to depth_cutoff (no time limit, a new Player - so an empty
+ *  transposition table - per search) with each number of Lazy SMP threads, and reports the median time to depth of
+ *  runs searches, the nodes of all the threads and the speedup over the first number of threads (scaling is only
+ *  measured on a machine with at least that many cores - on fewer, it shows the cost of the helpers):
+ *    javac *.java && java PlayerBenchmark threads [-depth d] [-runs r] [threads...]   (default: depth_cutoff, 5, 1 2 4 8)
+ **/
+
+class PlayerBenchmark {
+
+	// Positions - n rows of n cells ('W' white, 'B' black, '.' empty), the side to move is the one with fewer pieces (white on ties)
+	static final String[][] POSITIONS = {
+		{"opening",
+			"........" +
+			"........" +
+			"........" +
+			"...WB..." +
+			"...W...." +
+			"........" +
+			"........" +
+			"........"},
+		{"opening2",
+			"........" +
+			"........" +
+			"....B..." +
+			"...WW..." +
+			"...B...." +
+			"........" +
+			"........" +
+			"........"},
+		{"midgame",
+			"........" +
+			"..B....." +
+			"..WWB..." +
+			"..BWW..." +
+			"...BWB.." +
+			"....W..." +
+			"........" +
+			"........"},
+		{"midgame2",
+			"........" +
+			".B..W..." +
+			"..WBBW.." +
+			".WBWWB.." +
+			"..BWBW.." +
+			"...B.W.." +
+			"....B..." +
+			"........"},
+		{"tactical", // white to move, both sides have an open three
+			"........" +
+			"........" +
+			"..WWW..." +
+			"........" +
+			"..BBB..." +
+			"........" +
+			"....W..." +
+			".....B.."},
+		{"tactical2", // white to move, completes the split four (XX.XX)
+			"........" +
+			"...B...." +
+			"..WW.WW." +
+			"...BB..." +
+			"....B..." +
+			"........" +
+			"........" +
+			"........"},
+		{"midgame15", // 15x15 board - move generation and evaluation cost with a larger board
+			"..............." +
+			"..............." +
+			"..............." +
+			"..............." +
+			"......B........" +
+			".....WWB......." +
+			"....BWBW......." +
+			".....BWWB......" +
+			"......W.B......" +
+			".....B.W......." +
+			"..............." +
+			"..............." +
+			"..............." +
+			"..............." +
+			"..............."},
+	};
+
+	static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	static double seconds = 1.0; // measurement time per benchmark (after the same time of warm-up)
+	static int depth = 4; // depth of the fixed-depth search
+	static long sink; // results are accumulated here so the JIT cannot remove the benchmarked calls
+	static long nodes; // nodes visited by the search benchmarks
+
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("endgame")) {endgame(args.length > 1 ? Integer.parseInt(args[1]) : 100); return;}
+		if (args.length > 0 && args[0].equals("selective")) {selective(args.length > 1 ? Double.parseDouble(args[1]) : 2); return;}
+		if (args.length > 0 && args[0].equals("threads")) {threads(java.util.Arrays.copyOfRange(args, 1, args.length)); return;}
+		if (args.length > 0) {depth = Integer.parseInt(args[0]);}
+		if (args.length > 1) {seconds = Double.parseDouble(args[1]);}
+
+		System.out.printf("%-30s %-10s %14s %14s %14s%n", "benchmark", "position", "ns/op", "bytes/op", "nodes/s");
+		for (String[] position : POSITIONS) {
+			for (java.util.Map.Entry<String, LongSupplier> op : operations(position[0]).entrySet()) {
+				String name = op.getKey();
+				bench(name.equals("MaxPlayerAB") || name.equals("PVS") ? name + " depth " + depth : name, position[0], op.getValue());
+			}
+		}
+	}
+
+	static java.util.Map<String, LongSupplier> operations(String position) {
+		/** Benchmarked calls on the named position of POSITIONS, by name, each returning its result (also what the JMH
+		 *  benchmarks of jmh/ run - LongSupplier because they are in a package and cannot name these classes).
+		 **/
+		String[] found = null;
+		for (String[] p : POSITIONS) {if (p[0].equals(position)) {found = p;}}
+		if (found == null) {throw new IllegalArgumentException("unknown position " + position);}
+		Color[][] board = parse(found[1]);
+		Color turn = turn(board);
+		Player.MaxPlayer = turn; // the Color[][] evaluation is relative to the player of the static fields
+		Player.MinPlayer = turn.equals(Color.WHITE) ? Color.BLACK : Color.WHITE;
+		Player.BitBoard bitboard = Player.BitBoard.fromColors(board);
+		int side = Player.BitBoard.side(turn);
+		Player.TransTable tt = new Player.TransTable(4);
+		int[] moves = new int[bitboard.cells];
+
+		java.util.Map<String, LongSupplier> ops = new java.util.LinkedHashMap<String, LongSupplier>();
+		ops.put("getScore(Color[][])", () -> Player.getScore(board, Player.MaxPlayer, turn));
+		ops.put("getGlobalScore(Color[][])", () -> Player.getGlobalScore(board, turn));
+		ops.put("getFiltMoves(Color[][])", () -> Player.getFiltMoves(board, turn).size());
+		ops.put("isGameOver(Color[][])", () -> Player.isGameOver(board, turn) ? 1 : 0);
+		ops.put("BitBoard.getGlobalScore", () -> bitboard.getGlobalScore(side, side));
+		ops.put("BitBoard.getFiltMoves", () -> bitboard.getFiltMoves(moves));
+		ops.put("BitBoard.isGameOver", () -> bitboard.isGameOver(side, side) ? 1 : 0);
+		ops.put("BitBoard.make/unmake", () -> {
+			bitboard.getFiltMoves(moves);
+			int sq = moves[0];
+			bitboard.make(sq, side);
+			bitboard.unmake(sq, side);
+			return 0;
+		});
+		Player.OpeningBook book = Player.book_file == null ? null : Player.OpeningBook.get(Player.book_file);
+		if (book != null) {ops.put("OpeningBook.probe", () -> {int[] move = book.probe(bitboard); return move == null ? -1 : move[0];});}
+		ops.put("ThreatSearch.findWin", () -> {
+			Player.ThreatSearch threats = new Player.ThreatSearch(bitboard, Player.threat_nodes);
+			int win = threats.findWin(side);
+			nodes += threats.nodes;
+			return win;
+		});
+		ops.put("MaxPlayerAB", () -> {
+			tt.clear();
+			Player.Search search = new Player.Search(bitboard, side, tt, new Player.TimeManager(System.nanoTime(), 3600));
+			int[] best_move = search.MaxPlayerAB(bitboard, -Integer.MAX_VALUE, Integer.MAX_VALUE, depth, false);
+			nodes += search.nodes;
+			return best_move[2];
+		});
+		ops.put("PVS", () -> {
+			tt.clear();
+			Player.Search search = new Player.Search(bitboard, side, tt, new Player.TimeManager(System.nanoTime(), 3600));
+			int score = search.pvs(side, -Integer.MAX_VALUE, Integer.MAX_VALUE, depth);
+			nodes += search.nodes;
+			return score;
+		});
+		return ops;
+	}
+
+	static void bench(String benchmark, String position, LongSupplier op) {
+		/** Warm-up then measurement for the given time, printing one line of results.
+		 **/
+		run(op, (long)(seconds * 1e9)); // warm-up (JIT)
+		long thread = Thread.currentThread().getId();
+		long bytes = THREADS.getThreadAllocatedBytes(thread);
+		long[] result = run(op, (long)(seconds * 1e9)); // [ops, nanoseconds, nodes]
+		bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+
+		double ns_op = (double)result[1] / result[0];
+		String nodes_s = result[2] == 0 ? "-" : String.format("%.0f", result[2] * 1e9 / result[1]);
+		System.out.printf("%-30s %-10s %14.1f %14.1f %14s%n", benchmark, position, ns_op, (double)bytes / result[0], nodes_s);
+	}
+
+	static void endgame(int games) {
+		/** Solves the positions with 8 to 30 empty positions of games self-play games (depth 3 search, one random move
+		 *  in 8, from random openings), fewest empty positions first, until some position is not solved in endgame_time.
+		 **/
+		int size = Player.BitBoard.DEFAULT_SIZE, cells = size*size;
+		java.util.Random random = new java.util.Random(11); // fixed seed - same positions in every run
+		java.util.List<java.util.List<Player.BitBoard>> positions = new java.util.ArrayList<java.util.List<Player.BitBoard>>();
+		for (int empty = 0; empty <= cells; empty++) {positions.add(new java.util.ArrayList<Player.BitBoard>());}
+		for (int game = 0; game < games; game++) {
+			Player.BitBoard board = new Player.BitBoard(size);
+			int side = 0;
+			for (int i = 0; i < 4; i++) { // random opening near the centre
+				int sq;
+				do {sq = (size/2 - 2 + random.nextInt(4))*size + size/2 - 2 + random.nextInt(4);} while (!board.isEmpty(sq));
+				board.make(sq, side);
+				side = 1 - side;
+			}
+			Player.TransTable tt = new Player.TransTable(1);
+			while (!board.hasFive(0) && !board.hasFive(1) && board.moveCount() > 0) {
+				int empty = cells - board.pieces;
+				if (empty >= 8 && empty <= 30) {positions.get(empty).add(board.copy());}
+				Player.Search search = new Player.Search(board.copy(), side, tt, new Player.TimeManager(System.nanoTime(), 3600));
+				search.max_depth = 4;
+				search.reset(side, search.clock);
+				int[] move = search.iterate(1);
+				int sq = move[0]*size + move[1];
+				if (move[0] < 0 || random.nextInt(8) == 0) {do {sq = random.nextInt(cells);} while (!board.isEmpty(sq));}
+				board.make(sq, side);
+				side = 1 - side;
+			}
+		}
+
+		System.out.printf("%-6s %10s %12s %12s %14s %8s%n", "empty", "positions", "avg ms", "max ms", "avg nodes", "solved");
+		int threshold = 0;
+		Player.EndgameSolver solver = new Player.EndgameSolver(size, Player.endgame_tt_mb);
+		for (int empty = 8; empty <= 30; empty++) {
+			java.util.List<Player.BitBoard> list = positions.get(empty);
+			if (list.isEmpty()) {continue;}
+			long total_ns = 0, max_ns = 0, total_nodes = 0;
+			int solved = 0;
+			for (Player.BitBoard board : list) {
+				java.util.Arrays.fill(solver.table, 0); // each position from scratch, as the first solve of a game
+				long tStart = System.nanoTime();
+				int result = solver.solve(board, board.pieces % 2, new Player.TimeManager(tStart, Player.endgame_time));
+				long ns = System.nanoTime() - tStart;
+				total_ns += ns;
+				max_ns = Math.max(max_ns, ns);
+				total_nodes += solver.nodes;
+				if (result >= -1) {solved++;}
+			}
+			System.out.printf("%-6d %10d %12.1f %12.1f %14d %8s%n", empty, list.size(), total_ns / 1e6 / list.size(), max_ns / 1e6,
+				total_nodes / list.size(), solved + "/" + list.size());
+			if (solved < list.size()) {break;}
+			threshold = empty;
+		}
+		System.out.printf("endgame_empty = %d (every position solved within endgame_time = %.1fs)%n", threshold, Player.endgame_time);
+	}
+
+	static void selective(double seconds) {
+		/** Iterative deepening of each position for seconds (up to depth 30, minimax and PVS, no time prediction) with each
+		 *  selective search configuration, from an empty transposition table.
+		 **/
+		String[] configs = {"none", "lmr", "futility", "razoring", "extensions", "all"};
+		Player.time_predict = false; // every search runs for the whole time - the last iteration started is discarded
+		System.out.printf("%-10s %-8s %-11s %6s %12s %12s %8s %6s%n", "position", "search", "selective", "depth", "nodes", "nodes/s", "score", "move");
+		for (String[] position : POSITIONS) {
+			Player.BitBoard bitboard = Player.BitBoard.fromColors(parse(position[1]));
+			int side = Player.BitBoard.side(turn(parse(position[1])));
+			for (int pvs = 0; pvs < 2; pvs++) {
+				for (String config : configs) {
+					Player.TransTable tt = new Player.TransTable(16);
+					Player.TimeManager clock = new Player.TimeManager(System.nanoTime(), seconds);
+					Player.Search search = new Player.Search(bitboard.copy(), side, tt, clock);
+					search.max_depth = 31;
+					search.reset(side, clock);
+					search.use_pvs = pvs == 1;
+					search.use_lmr = config.equals("lmr") || config.equals("all");
+					search.use_futility = config.equals("futility") || config.equals("all");
+					search.use_razoring = config.equals("razoring") || config.equals("all");
+					search.use_extensions = config.equals("extensions") || config.equals("all");
+					int[] move = search.iterate(1);
+					long ms = Math.max(1, clock.elapsedMs());
+					System.out.printf("%-10s %-8s %-11s %6d %12d %12d %8d %6s%n", position[0], pvs == 1 ? "pvs" : "minimax", config,
+						search.stats.depth_reached, search.nodes, search.nodes * 1000 / ms, move[2], move[0] + "," + move[1]);
+				}
+			}
+		}
+	}
+
+	static void threads(String[] args) {
+		/** Time to depth of chooseMove with each number of threads, every position from an empty transposition table.
+		 *  Only the alpha-beta is measured: book, endgame solver, threat search, search cache and time prediction are off.
+		 *  Each search is run runs times and the run of median time is reported (the nodes of the helper threads differ
+		 *  from run to run).
+		 **/
+		java.util.List<Integer> counts = new java.util.ArrayList<Integer>();
+		int runs = 5;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-depth")) {Player.depth_cutoff = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("-runs")) {runs = Integer.parseInt(args[++i]);}
+			else {counts.add(Integer.parseInt(args[i]));}
+		}
+		if (counts.isEmpty()) {counts.addAll(java.util.Arrays.asList(1, 2, 4, 8));}
+		Player.book_file = null;
+		Player.endgame_empty = 0;
+		Player.threat_search = false;
+		Player.cache_file = null;
+		Player.ponder = false;
+		Player.time_predict = false;
+		Player.time_limit = 3600;
+		measure(counts, 1); // warm-up (compiled code, the thread pools' first threads)
+		long[][][][] results = measure(counts, runs); // [position][count][run] = [nanoseconds, nodes, depth, move]
+		System.out.printf("depth %d, %d cores, median of %d runs%n", Player.depth_cutoff - 1, Runtime.getRuntime().availableProcessors(), runs);
+		System.out.printf("%-10s %8s %10s %14s %8s %6s %6s%n", "position", "threads", "ms", "nodes", "speedup", "depth", "move");
+		double[] total_ms = new double[counts.size()];
+		long[] total_nodes = new long[counts.size()];
+		for (int p = 0; p < POSITIONS.length; p++) {
+			int size = parse(POSITIONS[p][1]).length;
+			double base_ms = 0;
+			for (int i = 0; i < counts.size(); i++) {
+				java.util.Arrays.sort(results[p][i], (x, y) -> Long.compare(x[0], y[0]));
+				long[] median = results[p][i][runs / 2];
+				double ms = median[0] / 1e6;
+				if (i == 0) {base_ms = ms;}
+				total_ms[i] += ms;
+				total_nodes[i] += median[1];
+				System.out.printf("%-10s %8d %10.1f %14d %8.2f %6d %6s%n", POSITIONS[p][0], counts.get(i), ms, median[1], base_ms / ms,
+					median[2], median[3] / size + "," + median[3] % size);
+			}
+		}
+		for (int i = 0; i < counts.size(); i++) {
+			System.out.printf("%-10s %8d %10.1f %14d %8.2f%n", "total", counts.get(i), total_ms[i], total_nodes[i], total_ms[0] / total_ms[i]);
+		}
+	}
+
+	static long[][][][] measure(java.util.List<Integer> counts, int runs) {
+		/** chooseMove on every position with each number of threads, runs times - the thread counts alternate, so what
+		 *  changes in the JVM over the measurement (compilation, heap) is spread over all of them.
+		 **/
+		long[][][][] results = new long[POSITIONS.length][counts.size()][runs][];
+		for (int p = 0; p < POSITIONS.length; p++) {
+			Color[][] board = parse(POSITIONS[p][1]);
+			Color turn = turn(board);
+			for (int run = 0; run < runs; run++) {
+				for (int i = 0; i < counts.size(); i++) {
+					Player.threads = counts.get(i);
+					Player player = new Player();
+					player.tt = new Player.TransTable(Player.tt_size_mb); // allocated (and zeroed) before the clock starts
+					player.tt_weights = Player.BitBoard.fromColors(board).patterns.weights;
+					System.gc();
+					long start = System.nanoTime();
+					Move move = player.chooseMove(board, turn);
+					long elapsed = System.nanoTime() - start;
+					Player.SearchStats stats = player.getLastStats();
+					results[p][i][run] = new long[] {elapsed, stats.totalNodes(), stats.depth_reached, move.row*board.length + move.col};
+					if (player.pool != null) {player.pool.shutdownNow();}
+				}
+			}
+		}
+		return results;
+	}
+
+	static long[] run(LongSupplier op, long nanos) {
+		/** Runs op in batches until nanos have elapsed. Returns [ops, nanoseconds, nodes].
+		 **/
+		long ops = 0, batch = 1;
+		nodes = 0;
+		long start = System.nanoTime(), elapsed;
+		do {
+			for (long i = 0; i < batch; i++) {sink += op.getAsLong();}
+			ops += batch;
+			elapsed = System.nanoTime() - start;
+			if (elapsed < nanos / 100) {batch *= 2;} // grow batches so timing does not dominate the fast benchmarks
+		} while (elapsed < nanos);
+		return new long[] {ops, elapsed, nodes};
+	}
+
+	static Color[][] parse(String cells) {
+		int size = (int)Math.round(Math.sqrt(cells.length()));
+		Color[][] board = new Color[size][size];
+		for (int i = 0; i < size*size; i++) {
+			char c = cells.charAt(i);
+			if (c == 'W') {board[i / size][i % size] = Color.WHITE;}
+			else if (c == 'B') {board[i / size][i % size] = Color.BLACK;}
+		}
+		return board;
+	}
+
+	static Color turn(Color[][] board) {
+		int white = 0, black = 0;
+		for (Color[] row : board) {
+			for (Color piece : row) {
+				if (Color.WHITE.equals(piece)) {white++;}
+				else if (Color.BLACK.equals(piece)) {black++;}
+			}
+		}
+		return white <= black ? Color.WHITE : Color.BLACK;
+	}
+
+}
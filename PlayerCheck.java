@@ -0,0 +1,126 @@
+import java.awt.Color;
+
+/** Differential checks of the engine's fast paths against the plain implementations they replace, on random positions
+ *  (fixed seeds - the same positions in every run). Each mode prints its counts and throws at the first mismatch, so a
+ *  failing check fails the build (mvn test runs them all):
+ *    javac *.java && java PlayerCheck [bitboard|endgame [positions]]
+ *  bitboard: the incremental BitBoard scores, after random sequences of make/unmake on 8x8 and 15x15 boards, equal
+ *  getScore(Color[][], Color, Color) on the same position, for both sides and both turns (split_patterns off - the
+ *  Color[][] evaluation only scores consecutive sets).
+ *  endgame: the result of EndgameSolver (win, draw or loss) on 8x8 positions with 5 to 9 empty positions left equals
+ *  a plain minimax over every empty position, and its move reaches that result.
+ **/
+
+class PlayerCheck {
+
+	public static void main(String[] args) {
+		String mode = args.length > 0 ? args[0] : "all";
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		if (mode.equals("bitboard") || mode.equals("all")) {bitboard(count > 0 ? count : 20000);}
+		if (mode.equals("endgame") || mode.equals("all")) {endgame(count > 0 ? count : 300);}
+	}
+
+	static void bitboard(int positions) {
+		/** Random positions of random lengths built by make (and unmake of a random piece one time in 4).
+		 **/
+		boolean split = Player.split_patterns;
+		Player.split_patterns = false;
+		try {
+			java.util.Random random = new java.util.Random(3);
+			long checked = 0;
+			for (int n = 0; n < positions; n++) {
+				int size = n % 2 == 0 ? 8 : 15;
+				Player.BitBoard board = new Player.BitBoard(size);
+				Color[][] colors = new Color[size][size];
+				int moves = random.nextInt(size*size*2/3);
+				for (int i = 0; i < moves; i++) {
+					int sq = random.nextInt(size*size);
+					Color piece = colors[sq / size][sq % size];
+					if (piece == null) {
+						int side = random.nextInt(2);
+						board.make(sq, side);
+						colors[sq / size][sq % size] = color(side);
+					} else if (random.nextInt(4) == 0) {
+						board.unmake(sq, Player.BitBoard.side(piece));
+						colors[sq / size][sq % size] = null;
+					}
+				}
+				for (int side = 0; side < 2; side++) {
+					for (int turn = 0; turn < 2; turn++) {
+						int expected = Player.getScore(colors, color(side), color(turn));
+						int score = board.getScore(side, turn);
+						if (score != expected) {
+							throw new IllegalStateException("position " + n + " (" + size + "x" + size + "), side " + side + ", turn "
+								+ turn + ": BitBoard.getScore " + score + ", getScore(Color[][]) " + expected);
+						}
+						checked++;
+					}
+				}
+			}
+			System.out.println("bitboard: " + positions + " positions, " + checked + " scores equal to getScore(Color[][])");
+		} finally {
+			Player.split_patterns = split;
+		}
+	}
+
+	static void endgame(int positions) {
+		/** Random positions without 5 in a row (white moved first, so the side to move has fewer pieces or white on ties),
+		 *  solved by EndgameSolver and by bruteForce.
+		 **/
+		int size = Player.BitBoard.DEFAULT_SIZE, cells = size*size;
+		java.util.Random random = new java.util.Random(17);
+		Player.EndgameSolver solver = new Player.EndgameSolver(size, 4);
+		int[] results = new int[3];
+		for (int n = 0; n < positions; n++) {
+			int empty = 5 + n % 5;
+			Player.BitBoard board = new Player.BitBoard(size);
+			int side = 0, tries = 0;
+			while (cells - board.pieces > empty) {
+				int sq = random.nextInt(cells);
+				if (!board.isEmpty(sq)) {continue;}
+				board.make(sq, side);
+				if (board.hasFive(side)) { // not a position the solver is given - try elsewhere, or start again
+					board.unmake(sq, side);
+					if (++tries > 1000) {board.clear(); side = 0; tries = 0;}
+					continue;
+				}
+				side = 1 - side;
+			}
+			int expected = bruteForce(board, side);
+			int result = solver.solve(board, side, new Player.TimeManager(System.nanoTime(), 3600));
+			int move = solver.best_move;
+			if (result != expected) {
+				throw new IllegalStateException("position " + n + " (" + empty + " empty): EndgameSolver " + result + ", minimax " + expected);
+			}
+			if (move < 0 || !board.isEmpty(move)) {throw new IllegalStateException("position " + n + ": no legal move " + move);}
+			board.make(move, side);
+			int reached = board.hasFive(side) ? 1 : -bruteForce(board, 1 - side);
+			board.unmake(move, side);
+			if (reached != expected) {
+				throw new IllegalStateException("position " + n + " (" + empty + " empty): move " + move + " reaches " + reached + ", not " + expected);
+			}
+			results[expected + 1]++;
+		}
+		System.out.println("endgame: " + positions + " positions (" + results[2] + " wins, " + results[1] + " draws, " + results[0]
+			+ " losses) solved as by minimax");
+	}
+
+	static int bruteForce(Player.BitBoard board, int side) {
+		/** Result of the position for side (to move) by minimax over every empty position: 1 win, 0 draw, -1 loss.
+		 **/
+		int best = -2;
+		for (int sq = 0; sq < board.cells && best < 1; sq++) {
+			if (!board.isEmpty(sq)) {continue;}
+			board.make(sq, side);
+			int value = board.hasFive(side) ? 1 : -bruteForce(board, 1 - side);
+			board.unmake(sq, side);
+			best = Math.max(best, value);
+		}
+		return best == -2 ? 0 : best; // board full - draw
+	}
+
+	static Color color(int side) {
+		return side == 0 ? Color.WHITE : Color.BLACK;
+	}
+
+}
@@ -0,0 +1,366 @@
+import java.awt.Color;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Headless match between two GomokuPlayer builds, without the referee's GUI: many games in parallel, then the
+ *  win/draw/loss count of engine A with its Elo difference, likelihood of superiority and an optional SPRT.
+ *  Every engine is loaded by its own class loader (with its own copy of GomokuPlayer and Move), so two builds of
+ *  Player - or the same build with different settings - keep separate classes and static fields. Each game starts
+ *  from a random opening that is played twice, once with each engine as white, so the openings are balanced.
+ *  The rules are the referee's: white first, 5 in a row wins, a full board is a draw, and an exception, an illegal
+ *  move or a move longer than the forfeit time loses.
+ *    javac *.java && java Tournament [options] <engine A> <engine B>
+ *  engine: class path of a build (directories or jars joined by the path separator), then optionally #ClassName
+ *          (default Player) - e.g. to test a change against the last commit, compile that commit into old/ and run
+ *          java Tournament -time 0.2 -sprt 0 10 . old
+ *  options:
+ *    -games n          games to play (default 1000)
+ *    -threads n        games played at the same time (default: one per core)
+ *    -time s           time limit per move (the engines' time_limit field)
+ *    -depth d          fixed depth instead: depth_cutoff = d + 1 and no time limit
+ *    -forfeit s        a move longer than this loses the game (default 10, as with the referee)
+ *    -size n           board size (default 8)
+ *    -opening n        random moves played before the engines (default 4)
+ *    -seed n           seed of the openings (default 1)
+ *    -set field=value  static field of both engines (repeatable); -a field=value / -b field=value for one of them
+ *    -sprt elo0 elo1   stops once the SPRT accepts elo0 or elo1 (alpha = beta = 0.05)
+ *    -records file     one JSON line per game (opening, moves, result)
+ *  Engines are reused by the thread that plays them, so each thread holds 2 engines (mind tt_size_mb times 2*threads).
+ **/
+
+class Tournament {
+
+	static int games = 1000;
+	static int threads = Runtime.getRuntime().availableProcessors();
+	static double time = -1; // < 0 - engines' own time limit
+	static int depth = -1; // < 0 - no fixed depth
+	static double forfeit = 10;
+	static int size = 8;
+	static int opening = 4;
+	static long seed = 1;
+	static double elo0 = Double.NaN, elo1 = Double.NaN; // SPRT hypotheses (NaN - no SPRT)
+	static final double ALPHA = 0.05, BETA = 0.05;
+	static String records;
+
+	static final Engine[] engines = new Engine[2];
+	static Writer record_out;
+	static volatile boolean stop; // SPRT decided - the games not started yet are skipped
+
+	// results from engine A's point of view
+	static int wins, draws, losses, played;
+	static int white_wins, black_wins; // by colour, whatever the engine (opening balance)
+	static int forfeits; // games lost by an exception, an illegal move or the time
+	static final long[] move_ns = new long[2]; // time spent per engine
+	static final long[] moves = new long[2];
+
+	static final class Engine {
+		/** One build of a GomokuPlayer, loaded by its own class loader; chooseMove is called by reflection since
+		 *  GomokuPlayer and Move are package-private classes of the build.
+		 **/
+		final String name;
+		final Class<?> player;
+		final Constructor<?> constructor;
+		final Method choose;
+		final Method stop_pondering; // null if the build does not ponder
+		Field row, col; // of Move, found with the first move
+		final ThreadLocal<Object> instance = new ThreadLocal<Object>(); // player of each thread
+
+		Engine(String name, String spec) throws Exception {
+			this.name = name;
+			String path = spec, class_name = "Player";
+			int hash = spec.lastIndexOf('#');
+			if (hash >= 0) {path = spec.substring(0, hash); class_name = spec.substring(hash + 1);}
+			List<URL> urls = new ArrayList<URL>();
+			for (String entry : (path + File.pathSeparator + System.getProperty("java.class.path")).split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {urls.add(new File(entry).toURI().toURL());} // the build first, then ours for the referee's classes
+			}
+			ClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader().getParent());
+			player = Class.forName(class_name, true, loader);
+			constructor = player.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			choose = player.getMethod("chooseMove", Color[][].class, Color.class);
+			choose.setAccessible(true);
+			Method stop = null;
+			try {stop = player.getMethod("stopPondering");} catch (NoSuchMethodException e) {}
+			stop_pondering = stop;
+		}
+
+		void set(String field, String value, boolean required) throws Exception {
+			/** Sets a static field of the player class, converting value to the field's type.
+			 **/
+			Field f;
+			try {f = player.getField(field);}
+			catch (NoSuchFieldException e) {
+				if (required) {throw new IllegalArgumentException(name + ": no public static field " + field + " in " + player.getName());}
+				System.out.println("warning: " + name + " has no field " + field + " - ignored");
+				return;
+			}
+			f.setAccessible(true); // the player class is package-private
+			Class<?> type = f.getType();
+			if (type == int.class) {f.setInt(null, Integer.parseInt(value));}
+			else if (type == long.class) {f.setLong(null, Long.parseLong(value));}
+			else if (type == double.class) {f.setDouble(null, Double.parseDouble(value));}
+			else if (type == boolean.class) {f.setBoolean(null, Boolean.parseBoolean(value));}
+			else if (type == String.class) {f.set(null, value.equals("null") ? null : value);}
+			else {throw new IllegalArgumentException(name + ": cannot set field " + field + " of type " + type.getName());}
+		}
+
+		int move(Color[][] board, Color me) throws Exception {
+			/** Move of this engine as row*size + col (the engine gets a copy of the board).
+			 **/
+			Object player = instance.get();
+			if (player == null) {player = constructor.newInstance(); instance.set(player);}
+			Color[][] copy = new Color[size][];
+			for (int r = 0; r < size; r++) {copy[r] = board[r].clone();}
+			Object move = choose.invoke(player, copy, me);
+			if (move == null) {return -1;}
+			if (row == null) {
+				row = move.getClass().getDeclaredField("row"); row.setAccessible(true);
+				col = move.getClass().getDeclaredField("col"); col.setAccessible(true);
+			}
+			int r = row.getInt(move), c = col.getInt(move);
+			return r < 0 || r >= size || c < 0 || c >= size ? -1 : r*size + c;
+		}
+
+		void endGame() {
+			Object player = instance.get();
+			if (player != null && stop_pondering != null) {
+				try {stop_pondering.invoke(player);} catch (Exception e) {}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> specs = new ArrayList<String>();
+		List<String[]> settings = new ArrayList<String[]>(); // [option (-set, -a or -b), field=value]
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-games")) {games = Integer.parseInt(args[++i]);}
+			else if (arg.equals("-threads")) {threads = Integer.parseInt(args[++i]);}
+			else if (arg.equals("-time")) {time = Double.parseDouble(args[++i]);}
+			else if (arg.equals("-depth")) {depth = Integer.parseInt(args[++i]);}
+			else if (arg.equals("-forfeit")) {forfeit = Double.parseDouble(args[++i]);}
+			else if (arg.equals("-size")) {size = Integer.parseInt(args[++i]);}
+			else if (arg.equals("-opening")) {opening = Integer.parseInt(args[++i]);}
+			else if (arg.equals("-seed")) {seed = Long.parseLong(args[++i]);}
+			else if (arg.equals("-set") || arg.equals("-a") || arg.equals("-b")) {settings.add(new String[] {arg, args[++i]});}
+			else if (arg.equals("-sprt")) {elo0 = Double.parseDouble(args[++i]); elo1 = Double.parseDouble(args[++i]);}
+			else if (arg.equals("-records")) {records = args[++i];}
+			else if (arg.startsWith("-")) {throw new IllegalArgumentException("unknown option " + arg);}
+			else {specs.add(arg);}
+		}
+		if (specs.size() != 2) {
+			System.out.println("usage: java Tournament [options] <engine A> <engine B> (see the comment of Tournament.java)");
+			return;
+		}
+
+		for (int e = 0; e < 2; e++) {
+			engines[e] = new Engine(e == 0 ? "A" : "B", specs.get(e));
+			engines[e].set("ponder", "false", false); // games run in parallel - pondering would take another core
+			if (time >= 0) {engines[e].set("time_limit", Double.toString(time), false);}
+			if (depth >= 0) {
+				engines[e].set("depth_cutoff", Integer.toString(depth + 1), false);
+				engines[e].set("time_limit", "3600", false);
+				engines[e].set("time_predict", "false", false);
+			}
+		}
+		for (String[] setting : settings) {
+			int equals = setting[1].indexOf('=');
+			String field = setting[1].substring(0, equals), value = setting[1].substring(equals + 1);
+			for (int e = 0; e < 2; e++) {
+				if (setting[0].equals("-set") || setting[0].equals(e == 0 ? "-a" : "-b")) {engines[e].set(field, value, true);}
+			}
+		}
+		if (records != null) {record_out = new FileWriter(records);}
+
+		System.out.printf("A: %s%nB: %s%n%d games, %d threads, %s, %dx%d board, %d opening moves%n", specs.get(0), specs.get(1), games,
+			threads, depth >= 0 ? "depth " + depth : time >= 0 ? time + "s per move" : "engines' time limit", size, size, opening);
+		long tStart = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Random random = new Random(seed);
+		int[] open = null;
+		for (int game = 0; game < games; game++) {
+			if (game % 2 == 0) {open = randomOpening(random);} // each opening twice, colours swapped
+			final int[] moves = open;
+			final int id = game;
+			pool.submit(() -> {
+				if (!stop) {play(id, moves, id % 2 == 0 ? 0 : 1);}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		if (record_out != null) {record_out.close();}
+		report();
+		System.out.printf("%.0fs%n", (System.nanoTime() - tStart) / 1e9);
+		System.exit(0); // engines may have left daemon threads (pondering, Lazy SMP pools)
+	}
+
+	static int[] randomOpening(Random random) {
+		/** opening random moves: the first one within 2 positions of the centre, the others next to a piece.
+		 **/
+		int[] moves = new int[opening];
+		boolean[] taken = new boolean[size*size];
+		for (int i = 0; i < opening; i++) {
+			int sq;
+			do {
+				if (i == 0) {sq = (size/2 - 2 + random.nextInt(4))*size + size/2 - 2 + random.nextInt(4);}
+				else {
+					int from = moves[random.nextInt(i)];
+					int r = from / size + random.nextInt(3) - 1, c = from % size + random.nextInt(3) - 1;
+					sq = r < 0 || r >= size || c < 0 || c >= size ? -1 : r*size + c;
+				}
+			} while (sq < 0 || taken[sq]);
+			taken[sq] = true;
+			moves[i] = sq;
+		}
+		return moves;
+	}
+
+	static void play(int id, int[] open, int white) {
+		/** Plays one game, engine white (0 - A, 1 - B) as white, from the opening moves.
+		 **/
+		Color[][] board = new Color[size][size];
+		List<Integer> played_moves = new ArrayList<Integer>();
+		Color turn = Color.WHITE;
+		for (int sq : open) {
+			board[sq / size][sq % size] = turn;
+			played_moves.add(sq);
+			turn = turn == Color.WHITE ? Color.BLACK : Color.WHITE;
+		}
+		int winner = -1; // engine (0 - A, 1 - B), -1 - draw
+		String reason = "full board";
+		while (played_moves.size() < size*size) {
+			int engine = (turn == Color.WHITE) == (white == 0) ? 0 : 1;
+			int sq;
+			long tMove = System.nanoTime();
+			try {sq = engines[engine].move(board, turn);}
+			catch (Exception e) {sq = -2;}
+			long ns = System.nanoTime() - tMove;
+			synchronized (Tournament.class) {move_ns[engine] += ns; moves[engine]++;}
+			if (sq < 0 || board[sq / size][sq % size] != null || ns > forfeit*1e9) {
+				winner = 1 - engine;
+				reason = sq == -2 ? "exception" : sq < 0 || board[sq / size][sq % size] != null ? "illegal move" : "time";
+				break;
+			}
+			board[sq / size][sq % size] = turn;
+			played_moves.add(sq);
+			if (five(board, sq)) {winner = engine; reason = "five"; break;}
+			turn = turn == Color.WHITE ? Color.BLACK : Color.WHITE;
+		}
+		engines[0].endGame();
+		engines[1].endGame();
+		record(id, white, winner, reason, played_moves);
+	}
+
+	static boolean five(Color[][] board, int sq) {
+		/** Whether the piece just played on sq makes 5 in a row.
+		 **/
+		int row = sq / size, col = sq % size;
+		Color piece = board[row][col];
+		int[][] dirs = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+		for (int[] dir : dirs) {
+			int count = 1;
+			for (int sign = -1; sign <= 1; sign += 2) {
+				int r = row + sign*dir[0], c = col + sign*dir[1];
+				while (r >= 0 && r < size && c >= 0 && c < size && piece.equals(board[r][c])) {count++; r += sign*dir[0]; c += sign*dir[1];}
+			}
+			if (count >= 5) {return true;}
+		}
+		return false;
+	}
+
+	static synchronized void record(int id, int white, int winner, String reason, List<Integer> played_moves) {
+		/** Adds a finished game to the results, logs it and checks the SPRT.
+		 **/
+		if (stop) {return;} // decided while this game was played - the reported numbers stay the ones of the decision
+		played++;
+		if (winner == 0) {wins++;} else if (winner == 1) {losses++;} else {draws++;}
+		if (winner >= 0 && !reason.equals("five")) {forfeits++;}
+		if (winner >= 0) {if (winner == white) {white_wins++;} else {black_wins++;}}
+		if (record_out != null) {
+			StringBuilder json = new StringBuilder();
+			json.append("{\"game\":").append(id).append(",\"white\":\"").append(engines[white].name).append("\",\"black\":\"")
+				.append(engines[1 - white].name).append("\",\"result\":\"").append(winner < 0 ? "1/2-1/2" : winner == white ? "1-0" : "0-1")
+				.append("\",\"reason\":\"").append(reason).append("\",\"opening\":").append(opening).append(",\"moves\":[");
+			for (int i = 0; i < played_moves.size(); i++) {
+				if (i > 0) {json.append(',');}
+				json.append(played_moves.get(i));
+			}
+			json.append("]}\n");
+			try {record_out.write(json.toString()); record_out.flush();} catch (IOException e) {}
+		}
+		if (played % 100 == 0) {report();}
+		if (!Double.isNaN(elo0)) {
+			double llr = llr();
+			if (llr <= Math.log(BETA / (1 - ALPHA)) || llr >= Math.log((1 - BETA) / ALPHA)) {stop = true;}
+		}
+	}
+
+	static void report() {
+		/** Results so far: W/D/L of engine A, Elo difference with its 95% interval, LOS and the SPRT state.
+		 **/
+		double score = played == 0 ? 0.5 : (wins + draws/2.0) / played;
+		double deviation = played == 0 ? 0 : Math.sqrt(variance(score) / played);
+		System.out.printf("%d games: A %d wins, %d draws, %d losses (%d forfeits, white %d - black %d)  score %.1f%%  Elo %+.1f [%+.1f, %+.1f]  LOS %.1f%%",
+			played, wins, draws, losses, forfeits, white_wins, black_wins, 100*score, elo(score), elo(score - 1.96*deviation),
+			elo(score + 1.96*deviation), 100*los());
+		if (!Double.isNaN(elo0)) {
+			double llr = llr();
+			String state = llr >= Math.log((1 - BETA) / ALPHA) ? "H1 accepted" : llr <= Math.log(BETA / (1 - ALPHA)) ? "H0 accepted" : "running";
+			System.out.printf("  SPRT [%.0f, %.0f] LLR %.2f (%.2f, %.2f) %s", elo0, elo1, llr, Math.log(BETA / (1 - ALPHA)),
+				Math.log((1 - BETA) / ALPHA), state);
+		}
+		System.out.printf("  ms/move A %.1f B %.1f%n", moves[0] == 0 ? 0 : move_ns[0] / 1e6 / moves[0], moves[1] == 0 ? 0 : move_ns[1] / 1e6 / moves[1]);
+	}
+
+	static double variance(double score) {
+		/** Variance of the result of one game (1, 0.5 or 0) around score.
+		 **/
+		return (wins*(1 - score)*(1 - score) + draws*(0.5 - score)*(0.5 - score) + losses*score*score) / Math.max(1, played);
+	}
+
+	static double elo(double score) {
+		score = Math.max(1e-3, Math.min(score, 1 - 1e-3)); // all wins or all losses - finite
+		return -400*Math.log10(1/score - 1);
+	}
+
+	static double los() {
+		/** Likelihood of superiority - probability that A is stronger, from wins and losses only.
+		 **/
+		if (wins + losses == 0) {return 0.5;}
+		return 0.5*(1 + erf((wins - losses) / Math.sqrt(2.0*(wins + losses))));
+	}
+
+	static double llr() {
+		/** Log-likelihood ratio of elo1 against elo0 (normal approximation of the score of the games played).
+		 **/
+		if (played == 0) {return 0;}
+		double score = (wins + draws/2.0) / played;
+		double variance = variance(score);
+		if (variance == 0) {return 0;}
+		double score0 = 1 / (1 + Math.pow(10, -elo0/400)), score1 = 1 / (1 + Math.pow(10, -elo1/400));
+		return played*(score1 - score0)*(2*score - score0 - score1) / (2*variance);
+	}
+
+	static double erf(double x) {
+		/** Error function (Abramowitz and Stegun 7.1.26, error below 1.5e-7).
+		 **/
+		double t = 1 / (1 + 0.3275911*Math.abs(x));
+		double y = 1 - t*(0.254829592 + t*(-0.284496736 + t*(1.421413741 + t*(-1.453152027 + t*1.061405429))))*Math.exp(-x*x);
+		return x >= 0 ? y : -y;
+	}
+
+}
@@ -0,0 +1,241 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Offline tuning of the evaluation weights (Player.Weights) from game records - Texel's method.
+ *  Every position of the games after the opening moves becomes a sample, except the ones where a side is one move from
+ *  5 in a row (decided by tactics, not by the weights). The evaluation is linear in the weights, so a sample is kept as
+ *  the number of sets of each kind (length, open ends, whose turn) of the side to move minus the ones of the opponent,
+ *  2 bytes each, and its score is the dot product of those counts with the weights - checked against
+ *  BitBoard.getGlobalScore for every sample when loading. The result of the game (1, 1/2, 0 for the side to move) is
+ *  predicted as sigmoid(K*score): K is fitted first with the starting weights, then each weight in turn is scaled up
+ *  and down (local search, the step halved when no weight moves) while the mean squared error goes down.
+ *  The samples are flat arrays and each error is summed by all the threads over their share of them, so a pass over
+ *  millions of positions allocates nothing per position.
+ *  Records are the JSON lines of Tournament -records, e.g. self-play of the current build:
+ *    javac *.java && java Tournament -games 20000 -time 0.05 -records games.jsonl . .
+ *    java Tuner [-size n] [-threads n] [-weights file] [-out file] [-k K] [-passes n] games.jsonl...
+ *  The tuned weights are written to -out (default weights.tuned.properties); Player reads them once they are copied
+ *  to weights.properties (or Player.weights_file is pointed at them) - test them with Tournament first.
+ **/
+
+class Tuner {
+
+	static int size = Player.BitBoard.DEFAULT_SIZE;
+	static int threads = Runtime.getRuntime().availableProcessors();
+	static String weights_file = Player.weights_file; // starting weights
+	static String out = "weights.tuned.properties";
+	static double k = 0; // scale of the scores in the sigmoid (0 - fitted)
+	static int passes = 100; // most passes over the weights
+	static double min_step = 0.01; // the search stops once the step is below this (relative change of a weight)
+
+	static final int W = Player.Weights.COUNT;
+	static short[] features = new short[W << 16]; // W counts per sample
+	static byte[] results = new byte[1 << 16]; // 2 win, 1 draw, 0 loss for the side to move
+	static int samples;
+	static ExecutorService pool;
+
+	public static void main(String[] args) throws Exception {
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-size")) {size = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("-threads")) {threads = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("-weights")) {weights_file = args[++i];}
+			else if (args[i].equals("-out")) {out = args[++i];}
+			else if (args[i].equals("-k")) {k = Double.parseDouble(args[++i]);}
+			else if (args[i].equals("-passes")) {passes = Integer.parseInt(args[++i]);}
+			else {files.add(args[i]);}
+		}
+		if (files.isEmpty()) {System.err.println("usage: java Tuner [-size n] [-threads n] [-weights file] [-out file] [-k K] [-passes n] records..."); System.exit(2);}
+		long tStart = System.nanoTime();
+		pool = Executors.newFixedThreadPool(threads, runnable -> {Thread t = new Thread(runnable, "gomoku-tuner"); t.setDaemon(true); return t;});
+		Player.Weights.load(weights_file, true); // a bad starting value stops here (Player would play with its default)
+		Player.weights_file = weights_file;
+		int[] weights = Player.weights().clone();
+
+		List<int[]> games = new ArrayList<int[]>(); // [opening, result for white (2, 1, 0), moves...]
+		for (String file : files) {read(file, games);}
+		load(games);
+		System.out.printf("%d games, %d positions (%.1fs)%n", games.size(), samples, (System.nanoTime() - tStart) / 1e9);
+		if (samples == 0) {return;}
+
+		if (k == 0) {k = fitK(weights);}
+		double best = error(weights, k);
+		System.out.printf("K = %.6g  error %.6f%n", k, best);
+		double step = 0.5;
+		for (int pass = 1; pass <= passes && step >= min_step; pass++) {
+			boolean improved = false;
+			for (int i = 0; i < W; i++) {
+				for (int dir = 1; dir >= -1; dir -= 2) {
+					int[] candidate = weights.clone();
+					long scaled = Math.round(dir > 0 ? weights[i] * (1 + step) : weights[i] / (1 + step));
+					if (scaled == weights[i]) {scaled += dir;} // small weights still move
+					candidate[i] = (int)Math.max(0, Math.min(scaled, Player.MAX_SCORE));
+					if (candidate[i] == weights[i]) {continue;}
+					double e = error(candidate, k);
+					if (e < best) {best = e; weights = candidate; improved = true; break;}
+				}
+			}
+			System.out.printf("pass %d  step %.3f  error %.6f  (%.1fs)%n", pass, step, best, (System.nanoTime() - tStart) / 1e9);
+			if (!improved) {step /= 2;}
+		}
+
+		Player.Weights.save(out, weights, String.format("tuned on %d positions of %d games, K = %.6g, error %.6f", samples, games.size(), k, best));
+		for (int i = 0; i < W; i++) {System.out.printf("%-20s %d%n", Player.Weights.NAMES[i], weights[i]);}
+		System.out.println("written to " + out);
+	}
+
+	static void read(String file, List<int[]> games) throws IOException {
+		/** Games of a Tournament records file: the opening length, the result and the moves of each line.
+		 **/
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				int result = line.indexOf("\"result\":\""), opening = line.indexOf("\"opening\":"), moves = line.indexOf("\"moves\":[");
+				if (result < 0 || opening < 0 || moves < 0) {continue;}
+				String score = line.substring(result + 10, line.indexOf('"', result + 10));
+				String[] list = line.substring(moves + 9, line.indexOf(']', moves)).split(",");
+				int[] game = new int[list.length + 2];
+				game[0] = Integer.parseInt(line.substring(opening + 10, line.indexOf(',', opening)).trim());
+				game[1] = score.equals("1-0") ? 2 : score.equals("0-1") ? 0 : 1;
+				for (int i = 0; i < list.length; i++) {game[i + 2] = list[i].trim().isEmpty() ? -1 : Integer.parseInt(list[i].trim());}
+				games.add(game);
+			}
+		}
+	}
+
+	static void load(List<int[]> games) throws Exception {
+		/** Replays the games on the worker threads (each one on its own board) and appends their samples.
+		 **/
+		List<Future<Samples>> parts = new ArrayList<Future<Samples>>();
+		int chunk = (games.size() + threads - 1) / threads;
+		for (int first = 0; first < games.size(); first += chunk) {
+			List<int[]> part = games.subList(first, Math.min(first + chunk, games.size()));
+			parts.add(pool.submit(() -> new Samples().replay(part)));
+		}
+		for (Future<Samples> future : parts) {
+			Samples part = future.get();
+			if (part.mismatches > 0) {throw new IllegalStateException(part.mismatches + " positions where the counts do not give BitBoard.getGlobalScore");}
+			ensure(samples + part.count);
+			System.arraycopy(part.features, 0, features, samples * W, part.count * W);
+			System.arraycopy(part.results, 0, results, samples, part.count);
+			samples += part.count;
+		}
+	}
+
+	static void ensure(int count) {
+		if (count > results.length) {
+			int capacity = Math.max(count, 2*results.length);
+			features = java.util.Arrays.copyOf(features, capacity * W);
+			results = java.util.Arrays.copyOf(results, capacity);
+		}
+	}
+
+	static final class Samples {
+		/** Samples of the games of one thread.
+		 **/
+		short[] features = new short[W << 12];
+		byte[] results = new byte[1 << 12];
+		int count, mismatches;
+		final Player.BitBoard board = new Player.BitBoard(size);
+		final Player.ThreatSearch threats = new Player.ThreatSearch(board, 0);
+		final int[] sets = new int[3*Player.BitBoard.MAX_SIZE];
+		final int[] five = new int[1];
+		final int[] weights = Player.weights();
+
+		Samples replay(List<int[]> games) {
+			for (int[] game : games) {
+				board.clear();
+				int side = 0;
+				for (int i = 2; i < game.length; i++) {
+					int sq = game[i];
+					if (sq < 0 || sq >= board.cells || !board.isEmpty(sq)) {break;} // forfeit or another board size
+					if (i - 2 >= game[0]) {sample(side, game[1]);}
+					board.make(sq, side);
+					if (board.hasFive(side)) {break;}
+					side = 1 - side;
+				}
+			}
+			return this;
+		}
+
+		void sample(int side, int white_result) {
+			/** Adds the position (side to move) unless a side is one move from 5 in a row.
+			 **/
+			if (board.moveCount() == 0 || threats.fives(side, five) > 0 || threats.fives(1 - side, five) > 0) {return;}
+			if (count == results.length) {
+				features = java.util.Arrays.copyOf(features, 2 * features.length);
+				results = java.util.Arrays.copyOf(results, 2 * results.length);
+			}
+			int base = count * W;
+			Player.BitBoard.Geometry geometry = board.geometry;
+			for (int line = 0; line < geometry.lines; line++) {
+				int len = geometry.line_len[line];
+				for (int owner = 0; owner < 2; owner++) {
+					int own = board.line_bits[owner][line];
+					int free = ~board.line_bits[1 - owner][line] & ((1 << len) - 1);
+					while (free != 0) { // one segment between the opponent's pieces per iteration, as BitBoard.updateLine
+						int start = Integer.numberOfTrailingZeros(free);
+						int run = Integer.numberOfTrailingZeros(~(free >>> start));
+						int mask = (1 << run) - 1;
+						free &= ~(mask << start);
+						int segment = (own >>> start) & mask;
+						if (segment == 0) {continue;}
+						int n = Player.PatternTable.sets(segment, ~segment & mask, run, Player.split_patterns, sets);
+						for (int i = 0; i < n; i++) {
+							int consecutive = sets[i] >>> 2, open_ends = sets[i] & 3;
+							if (open_ends == 0) {continue;}
+							features[base + Player.Weights.index(consecutive, open_ends, owner == side)] += owner == side ? 1 : -1;
+						}
+					}
+				}
+			}
+			long score = 0;
+			for (int i = 0; i < W; i++) {score += (long)features[base + i] * weights[i];}
+			if (score != board.getGlobalScore(side, side)) {mismatches++;}
+			results[count++] = (byte)(side == 0 ? white_result : 2 - white_result);
+		}
+	}
+
+	static double error(int[] weights, double k) throws Exception {
+		/** Mean squared error of the predicted results over all the samples, summed by the threads in parallel.
+		 **/
+		List<Future<Double>> parts = new ArrayList<Future<Double>>();
+		int chunk = (samples + threads - 1) / threads;
+		for (int first = 0; first < samples; first += chunk) {
+			int from = first, to = Math.min(first + chunk, samples);
+			parts.add(pool.submit(() -> {
+				double sum = 0;
+				for (int s = from, f = from * W; s < to; s++) {
+					double score = 0;
+					for (int i = 0; i < W; i++, f++) {score += features[f] * (double)weights[i];}
+					double predicted = 1 / (1 + Math.exp(-k * score));
+					double d = results[s] * 0.5 - predicted;
+					sum += d * d;
+				}
+				return sum;
+			}));
+		}
+		double sum = 0;
+		for (Future<Double> part : parts) {sum += part.get();}
+		return sum / samples;
+	}
+
+	static double fitK(int[] weights) throws Exception {
+		/** K giving the least error with weights: golden section search on log K between 1e-8 and 1.
+		 **/
+		double a = Math.log(1e-8), b = 0, g = (Math.sqrt(5) - 1) / 2;
+		double c = b - g*(b - a), d = a + g*(b - a);
+		double ec = error(weights, Math.exp(c)), ed = error(weights, Math.exp(d));
+		for (int i = 0; i < 40; i++) {
+			if (ec < ed) {b = d; d = c; ed = ec; c = b - g*(b - a); ec = error(weights, Math.exp(c));}
+			else {a = c; c = d; ec = ed; d = a + g*(b - a); ed = error(weights, Math.exp(d));}
+		}
+		return Math.exp((a + b) / 2);
+	}
+
+}
@@ -0,0 +1,67 @@
+package gomoku.jmh;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH version of the PlayerBenchmark micro-benchmarks: the same calls on the same positions (PlayerBenchmark.operations),
+ *  measured by JMH (forks, warm-up, error bars; -prof gc for the allocation rate).
+ *  JMH refuses benchmarks in the default package and code in a package cannot name the engine's classes (the referee
+ *  puts them in the default package), so each call is taken from PlayerBenchmark by reflection, once in setup, as a
+ *  LongSupplier - a single implementation per fork, inlined by the JIT like a direct call.
+ *    mvn -f jmh/pom.xml package && java -jar jmh/target/benchmarks.jar [-p position=midgame] [-p operation=PVS] [-prof gc]
+ **/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+	@Param({"opening", "opening2", "midgame", "midgame2", "tactical", "tactical2", "midgame15"})
+	public String position;
+
+	@Param({"BitBoard.getGlobalScore", "BitBoard.getFiltMoves", "BitBoard.isGameOver", "BitBoard.make/unmake",
+		"ThreatSearch.findWin", "MaxPlayerAB", "PVS", "getScore(Color[][])", "getGlobalScore(Color[][])", "getFiltMoves(Color[][])"})
+	public String operation;
+
+	@Param({"4"})
+	public int depth; // of the MaxPlayerAB and PVS searches
+
+	LongSupplier op;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() throws ReflectiveOperationException {
+		Class<?> benchmark = Class.forName("PlayerBenchmark");
+		Field depth_field = benchmark.getDeclaredField("depth");
+		depth_field.setAccessible(true);
+		depth_field.setInt(null, depth);
+		Method operations = benchmark.getDeclaredMethod("operations", String.class);
+		operations.setAccessible(true);
+		op = ((Map<String, LongSupplier>)operations.invoke(null, position)).get(operation);
+		if (op == null) {throw new IllegalArgumentException("unknown operation " + operation);}
+	}
+
+	@Benchmark
+	public long run() {
+		return op.getAsLong();
+	}
+
+}